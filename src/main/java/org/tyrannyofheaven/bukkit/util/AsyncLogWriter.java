@@ -0,0 +1,234 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.plugin.Plugin;
+import org.tyrannyofheaven.bukkit.util.ToHLoggingUtils.OverflowPolicy;
+
+/**
+ * Formats and writes a plugin's log messages on a background thread. Callers
+ * only capture the level, format and arguments into a bounded queue. The queue
+ * is drained in batches. Shuts itself down, writing out anything still queued,
+ * when its plugin is disabled.
+ *
+ * @author asaddi
+ */
+final class AsyncLogWriter implements Runnable, Listener {
+
+    // Maximum number of entries written per pass
+    private static final int BATCH_SIZE = 64;
+
+    // How long to wait for the writer thread on shutdown
+    private static final long SHUTDOWN_TIMEOUT = 5000L; // milliseconds
+
+    // Wakes up the writer thread on shutdown
+    private static final LogEntry SHUTDOWN = new LogEntry(Level.OFF, null, null, 0L);
+
+    private final Plugin plugin;
+
+    private final Logger logger;
+
+    private final BlockingQueue<LogEntry> queue;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final Thread thread;
+
+    private final AtomicLong discarded = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    AsyncLogWriter(Plugin plugin, int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        if (overflowPolicy == null)
+            throw new IllegalArgumentException("overflowPolicy cannot be null");
+        this.plugin = plugin;
+        this.logger = plugin.getLogger();
+        this.queue = new ArrayBlockingQueue<LogEntry>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.thread = new Thread(this, plugin.getName() + " log writer");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Start the writer thread and register for the plugin's disable event.
+     */
+    void start() {
+        thread.start();
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+
+    /**
+     * Queue a log message. If the writer has been shut down, the message is
+     * written immediately.
+     *
+     * @param level the log level
+     * @param format the format message
+     * @param args the format args
+     */
+    void submit(Level level, String format, Object[] args) {
+        LogEntry entry = new LogEntry(level, format, args, System.currentTimeMillis());
+        if (!running) {
+            entry.write(logger);
+            return;
+        }
+
+        switch (overflowPolicy) {
+        case BLOCK:
+            try {
+                queue.put(entry);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                entry.write(logger);
+            }
+            break;
+        case DISCARD:
+            if (!queue.offer(entry))
+                discarded.incrementAndGet();
+            break;
+        case DISCARD_OLDEST:
+            while (!queue.offer(entry)) {
+                if (queue.poll() != null)
+                    discarded.incrementAndGet();
+            }
+            break;
+        case CALLER_RUNS:
+            if (!queue.offer(entry))
+                entry.write(logger);
+            break;
+        }
+
+        // Raced with shutdown, don't leave it stranded
+        if (!running)
+            writeQueued();
+    }
+
+    @Override
+    public void run() {
+        List<LogEntry> batch = new ArrayList<LogEntry>(BATCH_SIZE);
+        try {
+            while (running) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (LogEntry entry : batch) {
+                    if (entry != SHUTDOWN)
+                        writeEntry(entry);
+                }
+                batch.clear();
+                reportDiscarded();
+            }
+        }
+        catch (InterruptedException e) {
+            // Shutting down
+        }
+    }
+
+    /**
+     * Stop the writer thread and write out any queued messages on the
+     * calling thread. Messages submitted afterwards are written immediately.
+     */
+    void shutdown() {
+        if (!running) return;
+        running = false;
+        queue.offer(SHUTDOWN); // if full, the writer will see the flag after its current batch
+        try {
+            thread.join(SHUTDOWN_TIMEOUT);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        writeQueued();
+        reportDiscarded();
+    }
+
+    // Write whatever's left on the calling thread
+    private void writeQueued() {
+        List<LogEntry> remaining = new ArrayList<LogEntry>();
+        queue.drainTo(remaining);
+        for (LogEntry entry : remaining) {
+            if (entry != SHUTDOWN)
+                writeEntry(entry);
+        }
+    }
+
+    // Write a queued message. A bad message (e.g. a format that doesn't match
+    // its arguments) is reported rather than allowed to kill the writer thread.
+    private void writeEntry(LogEntry entry) {
+        try {
+            entry.write(logger);
+        }
+        catch (RuntimeException e) {
+            try {
+                logger.log(Level.SEVERE, "Failed to write log message: " + entry.format, e);
+            }
+            catch (RuntimeException e2) {
+                // Logger itself is broken, nothing more we can do
+            }
+        }
+    }
+
+    private void reportDiscarded() {
+        long count = discarded.getAndSet(0L);
+        if (count > 0L)
+            logger.warning(String.format("%d log message(s) discarded (queue full)", count));
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onPluginDisable(PluginDisableEvent event) {
+        if (event.getPlugin() == plugin)
+            ToHLoggingUtils.stopAsyncLogging(plugin);
+    }
+
+    private static final class LogEntry {
+
+        private final Level level;
+
+        private final String format;
+
+        private final Object[] args;
+
+        // When it was logged, rather than when it's written
+        private final long millis;
+
+        private LogEntry(Level level, String format, Object[] args, long millis) {
+            this.level = level;
+            this.format = format;
+            this.args = args;
+            this.millis = millis;
+        }
+
+        private void write(Logger logger) {
+            ToHLoggingUtils.write(logger, level, format, args, millis);
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bukkit.util.ChatPaginator;
+
+/**
+ * Splits a stream of lines into pages, word-wrapping lines only as pages are
+ * requested. Lines are pulled from the source as needed, so showing the first
+ * page of a long listing doesn't wrap (or even produce) the rest of it.
+ *
+ * <p>Not thread-safe. Meant to be used from the main thread.
+ *
+ * @author asaddi
+ */
+final class LinePager {
+
+    private final Iterator<String> source;
+
+    private final int width;
+
+    private final int linesPerPage;
+
+    // Wrapped lines so far
+    private final List<String> lines = new ArrayList<String>();
+
+    /**
+     * Create a LinePager instance.
+     *
+     * @param source source of unwrapped lines
+     * @param width maximum line width
+     * @param linesPerPage number of lines per page
+     */
+    LinePager(Iterator<String> source, int width, int linesPerPage) {
+        if (source == null)
+            throw new IllegalArgumentException("source cannot be null");
+        if (linesPerPage < 1)
+            throw new IllegalArgumentException("linesPerPage must be positive");
+        this.source = source;
+        this.width = width;
+        this.linesPerPage = linesPerPage;
+    }
+
+    /**
+     * Wrap source lines until at least the given number of wrapped lines are
+     * available or the source runs out.
+     *
+     * @param count the number of wrapped lines wanted
+     * @return the number of wrapped lines available, which may be more or less
+     *   than count
+     */
+    int fill(int count) {
+        while (lines.size() < count && source.hasNext()) {
+            for (String wrap : ChatPaginator.wordWrap(source.next(), width))
+                lines.add(wrap);
+        }
+        return lines.size();
+    }
+
+    /**
+     * Retrieve a single wrapped line.
+     *
+     * @param index the line number, starting from 0
+     * @return the line, or null if there is no such line
+     */
+    String getLine(int index) {
+        if (index < 0 || fill(index + 1) <= index) return null;
+        return lines.get(index);
+    }
+
+    /**
+     * Test whether the given page exists. May wrap lines up to that page.
+     *
+     * @param page the page number, starting from 0
+     * @return true if the page has at least one line
+     */
+    boolean hasPage(int page) {
+        if (page < 0) return false;
+        int start = page * linesPerPage;
+        return fill(start + 1) > start;
+    }
+
+    /**
+     * Retrieve a page. Lines up to the end of the page are wrapped if they
+     * haven't been already.
+     *
+     * @param page the page number, starting from 0
+     * @return the lines of the page
+     * @throws IndexOutOfBoundsException if there is no such page
+     */
+    List<String> getPage(int page) {
+        if (!hasPage(page))
+            throw new IndexOutOfBoundsException("No such page: " + page);
+        int start = page * linesPerPage;
+        int end = Math.min(start + linesPerPage, fill(start + linesPerPage));
+        // Copy, since the backing list may grow
+        return Collections.unmodifiableList(new ArrayList<String>(lines.subList(start, end)));
+    }
+
+    /**
+     * Returns the total number of pages, if known.
+     *
+     * @return the number of pages, or -1 if the source hasn't been exhausted yet
+     */
+    int getPageCount() {
+        if (source.hasNext()) return -1;
+        return (lines.size() + linesPerPage - 1) / linesPerPage;
+    }
+
+    /**
+     * Returns the number of lines per page.
+     *
+     * @return lines per page
+     */
+    int getLinesPerPage() {
+        return linesPerPage;
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util;
+
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.List;
+import java.util.Locale;
+import java.util.MissingFormatArgumentException;
+import java.util.UnknownFormatConversionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A message template with color tokens (see {@link ToHMessageUtils#colorize(String)})
+ * and {@link String#format(String, Object...)} placeholders, both processed
+ * once when the template is compiled. Formatting a compiled template only
+ * appends its literal text and arguments, without re-parsing the format string.
+ * Templates are immutable and safe to share, e.g. as static constants.
+ *
+ * <p>Plain <code>%s</code> and <code>%d</code> placeholders are substituted
+ * directly. Anything fancier (flags, width, precision, other conversions) is
+ * handed to {@link String#format(String, Object...)} for that placeholder alone.
+ *
+ * @author asaddi
+ */
+public final class MessageTemplate {
+
+    // Same syntax as java.util.Formatter
+    private static final Pattern FORMAT_SPECIFIER = Pattern.compile("%(\\d+\\$|<)?([-#+ 0,(]*)?(\\d+)?(\\.\\d+)?([tT])?([a-zA-Z%])");
+
+    private final String template;
+
+    private final Segment[] segments;
+
+    // Estimated length of output, for sizing the StringBuilder
+    private final int estimatedLength;
+
+    private MessageTemplate(String template, Segment[] segments, int estimatedLength) {
+        this.template = template;
+        this.segments = segments;
+        this.estimatedLength = estimatedLength;
+    }
+
+    /**
+     * Compile a message template. Color tokens are expanded and format
+     * placeholders are parsed.
+     *
+     * @param template the template
+     * @return the compiled template
+     * @throws IllegalArgumentException if the template has invalid color tokens
+     *   or format placeholders
+     */
+    public static MessageTemplate compile(String template) {
+        if (template == null)
+            throw new IllegalArgumentException("template cannot be null");
+
+        String text = ToHMessageUtils.colorize(template);
+
+        // Integers are only appended directly if that's what Formatter would do
+        boolean asciiDigits = DecimalFormatSymbols.getInstance(Locale.getDefault()).getZeroDigit() == '0';
+
+        List<Segment> segments = new ArrayList<Segment>();
+        StringBuilder literal = new StringBuilder();
+        int estimatedLength = 0;
+        int ordinaryIndex = 0;
+        int lastIndex = -1;
+
+        Matcher m = FORMAT_SPECIFIER.matcher(text);
+        int pos = 0;
+        while (pos < text.length()) {
+            int percent = text.indexOf('%', pos);
+            if (percent < 0) {
+                literal.append(text, pos, text.length());
+                break;
+            }
+            literal.append(text, pos, percent);
+
+            m.region(percent, text.length());
+            if (!m.lookingAt())
+                throw new UnknownFormatConversionException(percent + 1 < text.length() ? String.valueOf(text.charAt(percent + 1)) : "%");
+            pos = m.end();
+
+            String index = m.group(1);
+            String flags = m.group(2);
+            String width = m.group(3);
+            String precision = m.group(4);
+            String dateTime = m.group(5);
+            char conversion = m.group(6).charAt(0);
+            boolean plain = (flags == null || flags.length() == 0) && width == null && precision == null && dateTime == null;
+
+            // Rebuild the specifier without its argument index
+            String spec = "%" + (flags == null ? "" : flags) + (width == null ? "" : width) + (precision == null ? "" : precision) + (dateTime == null ? "" : dateTime) + conversion;
+
+            if (conversion == '%' || conversion == 'n') {
+                // No argument, so the output is constant
+                if (index != null)
+                    throw new UnknownFormatConversionException(m.group());
+                literal.append(String.format(spec));
+                continue;
+            }
+
+            // Resolve the argument index
+            int argIndex;
+            if (index == null)
+                argIndex = ordinaryIndex++;
+            else if ("<".equals(index)) {
+                if (lastIndex < 0)
+                    throw new MissingFormatArgumentException(m.group());
+                argIndex = lastIndex;
+            }
+            else {
+                argIndex = Integer.parseInt(index.substring(0, index.length() - 1)) - 1;
+                if (argIndex < 0)
+                    throw new MissingFormatArgumentException(m.group());
+            }
+            lastIndex = argIndex;
+
+            if (literal.length() > 0) {
+                segments.add(new LiteralSegment(literal.toString()));
+                estimatedLength += literal.length();
+                literal.setLength(0);
+            }
+
+            if (plain && conversion == 's')
+                segments.add(new StringSegment(argIndex, spec));
+            else if (plain && conversion == 'd' && asciiDigits)
+                segments.add(new IntegerSegment(argIndex, spec));
+            else {
+                // Fail now rather than on first use
+                String.format(spec, (Object)null);
+                segments.add(new FormatSegment(argIndex, spec));
+            }
+            estimatedLength += 16;
+        }
+
+        if (literal.length() > 0) {
+            segments.add(new LiteralSegment(literal.toString()));
+            estimatedLength += literal.length();
+        }
+
+        return new MessageTemplate(template, segments.toArray(new Segment[segments.size()]), estimatedLength);
+    }
+
+    /**
+     * Format this template with the given arguments. Same result as
+     * <code>String.format(colorize(template), args)</code>.
+     *
+     * @param args format arguments
+     * @return the formatted message
+     */
+    public String format(Object... args) {
+        StringBuilder sb = new StringBuilder(estimatedLength);
+        for (Segment segment : segments) {
+            segment.appendTo(sb, args);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the original, uncompiled template.
+     *
+     * @return the template
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    private static interface Segment {
+
+        public void appendTo(StringBuilder sb, Object[] args);
+
+    }
+
+    private static class LiteralSegment implements Segment {
+
+        private final String text;
+
+        private LiteralSegment(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb, Object[] args) {
+            sb.append(text);
+        }
+
+    }
+
+    private static abstract class ArgumentSegment implements Segment {
+
+        private final int index;
+
+        protected final String spec;
+
+        private ArgumentSegment(int index, String spec) {
+            this.index = index;
+            this.spec = spec;
+        }
+
+        protected Object getArgument(Object[] args) {
+            if (args == null)
+                return null; // as String.format treats it
+            if (index >= args.length)
+                throw new MissingFormatArgumentException(spec);
+            return args[index];
+        }
+
+    }
+
+    // Plain %s
+    private static class StringSegment extends ArgumentSegment {
+
+        private StringSegment(int index, String spec) {
+            super(index, spec);
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb, Object[] args) {
+            Object arg = getArgument(args);
+            if (arg instanceof Formattable)
+                sb.append(String.format(spec, arg));
+            else
+                sb.append(arg);
+        }
+
+    }
+
+    // Plain %d
+    private static class IntegerSegment extends ArgumentSegment {
+
+        private IntegerSegment(int index, String spec) {
+            super(index, spec);
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb, Object[] args) {
+            Object arg = getArgument(args);
+            if (arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte)
+                sb.append(((Number)arg).longValue());
+            else
+                sb.append(String.format(spec, arg)); // BigInteger, null, or an error
+        }
+
+    }
+
+    // Anything else
+    private static class FormatSegment extends ArgumentSegment {
+
+        private FormatSegment(int index, String spec) {
+            super(index, spec);
+        }
+
+        @Override
+        public void appendTo(StringBuilder sb, Object[] args) {
+            sb.append(String.format(spec, getArgument(args)));
+        }
+
+    }
+
+}
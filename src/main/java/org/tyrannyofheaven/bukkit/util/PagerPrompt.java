@@ -15,31 +15,28 @@
  */
 package org.tyrannyofheaven.bukkit.util;
 
-import java.util.LinkedList;
-import java.util.List;
-
 import org.bukkit.ChatColor;
 import org.bukkit.conversations.ConversationContext;
 import org.bukkit.conversations.MessagePrompt;
 import org.bukkit.conversations.Prompt;
 
+/**
+ * Stateless pager prompt. The pager and the current position are kept in the
+ * ConversationContext, so a single instance (and a single ConversationFactory)
+ * may be shared by any number of conversations.
+ *
+ * <p>The position is a single integer cursor over the page sequence, where
+ * each page is its lines followed by a "More?" prompt.
+ */
 class PagerPrompt implements Prompt {
 
-    // Seems saner to keep our state in instance variables rather than a ConversationContext.
-    // However as a consequence, ConversationFactories are not reusable.
-    // Maybe if the Conversation's first prompt were cloned...
-
-    private final List<String> lines = new LinkedList<String>();
-
-    private final int linesPerPage;
-
-    private final int totalPages;
+    // Session data key for the LinePager
+    static final String PAGER_KEY = PagerPrompt.class.getName() + ".pager";
 
-    private int currentLine;
+    // Session data key for the cursor
+    private static final String CURSOR_KEY = PagerPrompt.class.getName() + ".cursor";
 
-    private int currentPage;
-
-    private boolean shouldBlock;
+    static final PagerPrompt INSTANCE = new PagerPrompt();
 
     private static final Prompt ABORTED_PROMPT = new MessagePrompt() {
 
@@ -55,55 +52,106 @@ class PagerPrompt implements Prompt {
         
     };
 
-    PagerPrompt(List<String> lines, int linesPerPage) {
-        if (lines == null || lines.isEmpty())
+    private PagerPrompt() {
+    }
+
+    /**
+     * Set up a conversation's context for paging.
+     * 
+     * @param context the conversation context
+     * @param pager the pager
+     */
+    static void initialize(ConversationContext context, LinePager pager) {
+        if (pager == null || !pager.hasPage(0))
             throw new IllegalArgumentException("lines cannot be empty");
-        this.lines.addAll(lines);
-        this.linesPerPage = linesPerPage - 1; // Room for prompt
-        
-        totalPages = (this.lines.size() + this.linesPerPage - 1) / this.linesPerPage;
+        context.setSessionData(PAGER_KEY, pager);
+        context.setSessionData(CURSOR_KEY, 0);
+    }
+
+    private static LinePager getPager(ConversationContext context) {
+        return (LinePager)context.getSessionData(PAGER_KEY);
+    }
+
+    private static int getCursor(ConversationContext context) {
+        Integer cursor = (Integer)context.getSessionData(CURSOR_KEY);
+        return cursor == null ? 0 : cursor;
+    }
+
+    // Number of cursor positions per page: the lines plus the prompt
+    private static int getStride(LinePager pager) {
+        return pager.getLinesPerPage() + 1;
     }
 
     @Override
     public String getPromptText(ConversationContext context) {
-        if (currentLine < linesPerPage) {
+        LinePager pager = getPager(context);
+        int cursor = getCursor(context);
+        int page = cursor / getStride(pager);
+        int offset = cursor % getStride(pager);
+
+        if (offset < pager.getLinesPerPage()) {
             // Next line
-            String prompt = lines.remove(0);
-            currentLine++;
-            shouldBlock = false;
-            return prompt;
+            return pager.getLine(page * pager.getLinesPerPage() + offset);
         }
         else {
-            // Next page
-            currentLine = 0;
-            currentPage++;
-            shouldBlock = true;
-            return ChatColor.YELLOW + String.format("Page %d of %d. More? y/n", currentPage, totalPages);
+            // End of page
+            int totalPages = pager.getPageCount();
+            if (totalPages < 0)
+                return ChatColor.YELLOW + String.format("Page %d. More? y/n/#", page + 1);
+            else
+                return ChatColor.YELLOW + String.format("Page %d of %d. More? y/n/#", page + 1, totalPages);
         }
     }
 
     @Override
     public boolean blocksForInput(ConversationContext context) {
-        return shouldBlock;
+        LinePager pager = getPager(context);
+        return getCursor(context) % getStride(pager) == pager.getLinesPerPage();
     }
 
     @Override
     public Prompt acceptInput(ConversationContext context, String input) {
-        // Sanitize
-        if (input != null) {
-            input = input.toLowerCase().trim();
-            // Only care about first char
-            if (!input.isEmpty())
-                input = input.substring(0, 1);
+        LinePager pager = getPager(context);
+        int cursor = getCursor(context);
+        int page = cursor / getStride(pager);
+        int offset = cursor % getStride(pager);
+
+        if (offset < pager.getLinesPerPage()) {
+            // Not blocking. Keep going if there's another line on this page,
+            // or another page to prompt for.
+            offset++;
+            boolean more = offset < pager.getLinesPerPage() ?
+                    pager.getLine(page * pager.getLinesPerPage() + offset) != null :
+                    pager.hasPage(page + 1);
+            if (!more)
+                return Prompt.END_OF_CONVERSATION;
+            context.setSessionData(CURSOR_KEY, cursor + 1);
+            return this;
         }
 
-        if ("n".equals(input)) {
-            return ABORTED_PROMPT;
+        // Sanitize
+        input = input == null ? "" : input.toLowerCase().trim();
+
+        int nextPage = page + 1;
+        if (!input.isEmpty() && Character.isDigit(input.charAt(0))) {
+            // Jump to page number
+            try {
+                int requested = Integer.parseInt(input) - 1;
+                if (pager.hasPage(requested))
+                    nextPage = requested;
+            }
+            catch (NumberFormatException e) {
+                // Ignore, just go to the next page
+            }
         }
-        else {
-            // Not blocking
-            return !lines.isEmpty() ? this : Prompt.END_OF_CONVERSATION;
+        else if (input.startsWith("n")) {
+            return ABORTED_PROMPT;
         }
+
+        if (!pager.hasPage(nextPage))
+            return Prompt.END_OF_CONVERSATION;
+        context.setSessionData(CURSOR_KEY, nextPage * getStride(pager));
+        return this;
     }
 
 }
@@ -16,7 +16,10 @@
 package org.tyrannyofheaven.bukkit.util;
 
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
 import org.bukkit.plugin.Plugin;
@@ -28,10 +31,56 @@ import org.bukkit.plugin.Plugin;
  */
 public class ToHLoggingUtils {
 
+    // Plugins with async logging enabled
+    private static final ConcurrentMap<Plugin, AsyncLogWriter> asyncLogWriters = new ConcurrentHashMap<Plugin, AsyncLogWriter>();
+
     private ToHLoggingUtils() {
         throw new AssertionError("Don't instantiate me!");
     }
 
+    /**
+     * What to do with a log message when the async logging queue is full.
+     */
+    public static enum OverflowPolicy {
+        /** Wait for room in the queue. */
+        BLOCK,
+        /** Discard the new message. */
+        DISCARD,
+        /** Discard the oldest queued message. */
+        DISCARD_OLDEST,
+        /** Write the message on the calling thread. */
+        CALLER_RUNS;
+    }
+
+    /**
+     * Format and write a plugin's log messages on a background thread. Log
+     * calls only queue the format and args, so args should not be modified
+     * afterwards. Queued messages are written out when the plugin is disabled
+     * (or {@link #stopAsyncLogging(Plugin)} is called).
+     * 
+     * @param plugin the plugin
+     * @param capacity the maximum number of queued messages
+     * @param overflowPolicy what to do when the queue is full
+     */
+    public static void startAsyncLogging(Plugin plugin, int capacity, OverflowPolicy overflowPolicy) {
+        AsyncLogWriter writer = new AsyncLogWriter(plugin, capacity, overflowPolicy);
+        if (asyncLogWriters.putIfAbsent(plugin, writer) != null)
+            throw new IllegalStateException("Async logging already started");
+        writer.start();
+    }
+
+    /**
+     * Go back to logging on the calling thread, writing out any queued
+     * messages first. Does nothing if async logging wasn't started.
+     * 
+     * @param plugin the plugin
+     */
+    public static void stopAsyncLogging(Plugin plugin) {
+        AsyncLogWriter writer = asyncLogWriters.remove(plugin);
+        if (writer != null)
+            writer.shutdown();
+    }
+
     // Create a log message
     private static String createLogMessage(String format, Object... args) {
         if (format == null)
@@ -53,13 +102,38 @@ public class ToHLoggingUtils {
     public static void log(Plugin plugin, Level level, String format, Object... args) {
         Logger logger = plugin.getLogger();
         if (logger.isLoggable(level)) { // Avoid unnecessary String.format() calls
-            if (args.length > 0 && args[args.length - 1] instanceof Throwable) {
-                // Last argument is a Throwable, treat accordingly
-                logger.log(level, createLogMessage(format, Arrays.copyOf(args, args.length - 1)), (Throwable)args[args.length - 1]);
-            }
-            else {
-                logger.log(level, createLogMessage(format, args));
-            }
+            AsyncLogWriter writer = asyncLogWriters.get(plugin);
+            if (writer != null)
+                writer.submit(level, format, args);
+            else
+                write(logger, level, format, args);
+        }
+    }
+
+    // Format and write a log message that was logged at the given time
+    static void write(Logger logger, Level level, String format, Object[] args, long millis) {
+        LogRecord record;
+        if (args.length > 0 && args[args.length - 1] instanceof Throwable) {
+            // Last argument is a Throwable, treat accordingly
+            record = new LogRecord(level, createLogMessage(format, Arrays.copyOf(args, args.length - 1)));
+            record.setThrown((Throwable)args[args.length - 1]);
+        }
+        else {
+            record = new LogRecord(level, createLogMessage(format, args));
+        }
+        record.setMillis(millis);
+        record.setLoggerName(logger.getName());
+        logger.log(record);
+    }
+
+    // Format and write a log message
+    static void write(Logger logger, Level level, String format, Object[] args) {
+        if (args.length > 0 && args[args.length - 1] instanceof Throwable) {
+            // Last argument is a Throwable, treat accordingly
+            logger.log(level, createLogMessage(format, Arrays.copyOf(args, args.length - 1)), (Throwable)args[args.length - 1]);
+        }
+        else {
+            logger.log(level, createLogMessage(format, args));
         }
     }
 
@@ -16,9 +16,14 @@
 package org.tyrannyofheaven.bukkit.util;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bukkit.ChatColor;
 import org.bukkit.Server;
@@ -27,6 +32,7 @@ import org.bukkit.conversations.Conversable;
 import org.bukkit.conversations.Conversation;
 import org.bukkit.conversations.ConversationFactory;
 import org.bukkit.entity.Player;
+import org.bukkit.permissions.Permissible;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.util.ChatPaginator;
 
@@ -40,8 +46,22 @@ public class ToHMessageUtils {
     // Number of lines per page
     private static final int LINES_PER_PAGE = ChatPaginator.CLOSED_CHAT_PAGE_HEIGHT;
 
-    // Cache for colorize(). Feeling kinda iffy, but Strings are immutable...
-    private static final ConcurrentMap<String, String> colorizeCache = new ConcurrentHashMap<String, String>();
+    // Default maximum number of colorize() results to keep
+    private static final int DEFAULT_COLORIZE_CACHE_SIZE = 1024;
+
+    // Cache for colorize(). Bounded, since callers may pass dynamic text.
+    private static final ColorizeCache colorizeCache = new ColorizeCache(DEFAULT_COLORIZE_CACHE_SIZE);
+
+    // Color name -> color code, so colorize() needn't go through ChatColor.valueOf()
+    private static final Map<String, String> colorNames;
+
+    static {
+        Map<String, String> names = new HashMap<String, String>();
+        for (ChatColor chatColor : ChatColor.values()) {
+            names.put(chatColor.name(), chatColor.toString());
+        }
+        colorNames = Collections.unmodifiableMap(names);
+    }
 
     private ToHMessageUtils() {
         throw new AssertionError("Don't instantiate me!");
@@ -56,10 +76,83 @@ public class ToHMessageUtils {
      * @param args format arguments
      */
     public static void sendMessage(CommandSender sender, String format, Object... args) {
-        String message = String.format(format, args);
-        for (String line : message.split("\n")) {
-            sender.sendMessage(line);
+        sender.sendMessage(splitLines(String.format(format, args)));
+    }
+
+    /**
+     * Send the same message to many recipients. The message is formatted and
+     * split into lines once. Supports {@link String#format(String, Object...)}
+     * formatting and multiple lines.
+     * 
+     * @param recipients the receivers of the message
+     * @param format the message format string
+     * @param args format arguments
+     * @return the number of recipients
+     */
+    public static int sendMessageToAll(Iterable<? extends CommandSender> recipients, String format, Object... args) {
+        return sendLinesToAll(recipients, splitLines(String.format(format, args)));
+    }
+
+    /**
+     * Send a message from a precompiled template. Supports multiple lines.
+     * 
+     * @param sender the receiver of the message
+     * @param template the message template
+     * @param args format arguments
+     */
+    public static void sendMessage(CommandSender sender, MessageTemplate template, Object... args) {
+        sender.sendMessage(splitLines(template.format(args)));
+    }
+
+    /**
+     * Send the same message, from a precompiled template, to many recipients.
+     * The message is formatted and split into lines once.
+     * 
+     * @param recipients the receivers of the message
+     * @param template the message template
+     * @param args format arguments
+     * @return the number of recipients
+     */
+    public static int sendMessageToAll(Iterable<? extends CommandSender> recipients, MessageTemplate template, Object... args) {
+        return sendLinesToAll(recipients, splitLines(template.format(args)));
+    }
+
+    // Send already-split lines to each recipient
+    private static int sendLinesToAll(Iterable<? extends CommandSender> recipients, String[] lines) {
+        int count = 0;
+        for (CommandSender recipient : recipients) {
+            recipient.sendMessage(lines);
+            count++;
         }
+        return count;
+    }
+
+    /**
+     * Split a message into lines. Same result as <code>message.split("\n")</code>
+     * (trailing empty lines are dropped) without going through a regex.
+     * 
+     * @param message the message
+     * @return the lines
+     */
+    public static String[] splitLines(String message) {
+        int end = message.indexOf('\n');
+        if (end < 0)
+            return new String[] { message }; // common case
+
+        List<String> lines = new ArrayList<String>();
+        int start = 0;
+        while (end >= 0) {
+            lines.add(message.substring(start, end));
+            start = end + 1;
+            end = message.indexOf('\n', start);
+        }
+        lines.add(message.substring(start));
+
+        // Drop trailing empty lines
+        int size = lines.size();
+        while (size > 0 && lines.get(size - 1).length() == 0)
+            size--;
+        return lines.subList(0, size).toArray(new String[size]);
     }
 
     // For colorize()
@@ -79,7 +172,6 @@ public class ToHMessageUtils {
     public static String colorize(String text) {
         if (text == null) return null;
 
-        // Works best with interned strings
         String cacheResult = colorizeCache.get(text);
         if (cacheResult != null) return cacheResult;
 
@@ -126,7 +218,9 @@ public class ToHMessageUtils {
                     color.append(c);
                 }
                 else if (c == '}') {
-                    ChatColor chatColor = ChatColor.valueOf(color.toString());
+                    String chatColor = colorNames.get(color.toString());
+                    if (chatColor == null)
+                        throw new IllegalArgumentException("Invalid color name");
                     out.append(chatColor);
                     state = ColorizeState.TEXT;
                 }
@@ -164,11 +258,109 @@ public class ToHMessageUtils {
         }
 
         cacheResult = out.toString();
-        colorizeCache.putIfAbsent(text, cacheResult);
+        colorizeCache.put(text, cacheResult);
 
         return cacheResult;
     }
 
+    /**
+     * Set the maximum number of colorize() results to cache. Once full,
+     * arbitrary results are discarded to make room.
+     * 
+     * @param size the maximum size. 0 disables caching.
+     */
+    public static void setColorizeCacheSize(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("size must be non-negative");
+        colorizeCache.setMaxSize(size);
+    }
+
+    // Current number of cached colorize() results
+    static int getColorizeCacheSize() {
+        return colorizeCache.size();
+    }
+
+    /**
+     * Returns the number of colorize() calls answered from the cache.
+     * 
+     * @return number of cache hits
+     */
+    public static long getColorizeCacheHits() {
+        return colorizeCache.getHits();
+    }
+
+    /**
+     * Returns the number of colorize() calls that had to parse their text.
+     * 
+     * @return number of cache misses
+     */
+    public static long getColorizeCacheMisses() {
+        return colorizeCache.getMisses();
+    }
+
+    // Bounded cache of colorize() results with hit/miss counts. Lookups are
+    // lock-free. Eviction is approximate: once full, arbitrary entries are
+    // dropped. Cheaper than tracking access order, and colorize() is mostly
+    // called with a small, fixed set of templates.
+    private static class ColorizeCache {
+
+        private final ConcurrentMap<String, String> cache = new ConcurrentHashMap<String, String>();
+
+        private volatile int maxSize;
+
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong misses = new AtomicLong();
+
+        private ColorizeCache(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        private String get(String text) {
+            String result = cache.get(text);
+            if (result != null)
+                hits.incrementAndGet();
+            else
+                misses.incrementAndGet();
+            return result;
+        }
+
+        private void put(String text, String result) {
+            int max = maxSize;
+            if (max <= 0)
+                return;
+            if (cache.size() >= max)
+                trim(max * 3 / 4); // make some room
+            cache.putIfAbsent(text, result);
+        }
+
+        private void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            trim(maxSize);
+        }
+
+        private int size() {
+            return cache.size();
+        }
+
+        // Drop arbitrary entries until there are at most size left
+        private void trim(int size) {
+            for (Iterator<String> i = cache.keySet().iterator(); i.hasNext() && cache.size() > size;) {
+                i.next();
+                i.remove();
+            }
+        }
+
+        private long getHits() {
+            return hits.get();
+        }
+
+        private long getMisses() {
+            return misses.get();
+        }
+
+    }
+
     // Decode a color escape code. Same mapping as sk89q's plugins.
     private static String decodeColor(char c) {
         switch (c) {
@@ -219,14 +411,17 @@ public class ToHMessageUtils {
      * @param permission the permission required to receive the broadcast
      * @param format the message format
      * @param args format args
-     * @return number of users who received the message. In the case of a multi-line
-     *   message, this is the number of users who received the last line.
+     * @return number of users who received the message
      */
     public static int broadcast(Plugin plugin, String permission, String format, Object... args) {
-        String message = String.format(format, args);
+        String[] lines = splitLines(String.format(format, args));
+        // Same recipients as Server.broadcast(), but determined once for all lines
         int count = 0;
-        for (String line : message.split("\n")) {
-            count = plugin.getServer().broadcast(line, permission);
+        for (Permissible permissible : plugin.getServer().getPluginManager().getPermissionSubscriptions(permission)) {
+            if (permissible instanceof CommandSender && permissible.hasPermission(permission)) {
+                ((CommandSender)permissible).sendMessage(lines);
+                count++;
+            }
         }
         return count;
     }
@@ -238,8 +433,7 @@ public class ToHMessageUtils {
      * @param server the server
      * @param format the message format
      * @param args format args
-     * @return number of users who received the message. In the case of a multi-line
-     *   message, this is the number of users who received the last line.
+     * @return number of users who received the message
      */
     public static int broadcastMessage(Plugin plugin, String format, Object... args) {
         return broadcast(plugin, Server.BROADCAST_CHANNEL_USERS, format, args);
@@ -252,8 +446,7 @@ public class ToHMessageUtils {
      * @param server the server
      * @param format the message format
      * @param args format args
-     * @return number of users who received the message. In the case of a multi-line
-     *   message, this is the number of users who received the last line.
+     * @return number of users who received the message
      */
     public static int broadcastAdmin(Plugin plugin, String format, Object... args) {
         return broadcast(plugin, Server.BROADCAST_CHANNEL_ADMINISTRATIVE, format, args);
@@ -269,35 +462,55 @@ public class ToHMessageUtils {
      * @param lines the lines to display
      */
     public static void displayLines(Plugin plugin, CommandSender sender, List<String> lines) {
-        if (lines.isEmpty()) return;
+        // Paging reads lazily over later turns, so don't hold on to the
+        // caller's list, which it may change once we return
+        displayLines(plugin, sender, new ArrayList<String>(lines).iterator());
+    }
 
+    /**
+     * Display a stream of lines, automatically paginating if necessary. Only
+     * bothers paginating if sender is a Player and the number of lines is
+     * greater than the size of a page. When paginating, lines are pulled from
+     * the iterator (and word-wrapped) only as each page is displayed.
+     * 
+     * @param plugin the plugin
+     * @param sender the CommandSender to display the lines to
+     * @param lines the lines to display
+     */
+    public static void displayLines(Plugin plugin, CommandSender sender, Iterator<String> lines) {
+        if (!lines.hasNext()) return;
+
+        List<String> outputLines;
         if (sender instanceof Player) {
-            // Word wrap long lines
-            List<String> outputLines = new ArrayList<String>(lines.size());
-            for (String line : lines) {
-                String[] wrapped = ChatPaginator.wordWrap(line, ChatPaginator.GUARANTEED_NO_WRAP_CHAT_PAGE_WIDTH);
-                for (String wrap : wrapped)
-                    outputLines.add(wrap);
-            }
-            lines = outputLines;
+            // Word wrap long lines, leaving room for the pager prompt
+            LinePager pager = new LinePager(lines, ChatPaginator.GUARANTEED_NO_WRAP_CHAT_PAGE_WIDTH, LINES_PER_PAGE - 1);
 
-            if (lines.size() > LINES_PER_PAGE) {
+            if (pager.fill(LINES_PER_PAGE + 1) > LINES_PER_PAGE) {
+                // The prompt is stateless and shared. The factory is cheap and
+                // holds the plugin, so it isn't cached.
                 Conversation convo = new ConversationFactory(plugin)
-                .withFirstPrompt(new PagerPrompt(lines, LINES_PER_PAGE))
-                .withLocalEcho(false)
-                .buildConversation((Conversable)sender);
+                    .withFirstPrompt(PagerPrompt.INSTANCE)
+                    .withLocalEcho(false)
+                    .buildConversation((Conversable)sender);
+                PagerPrompt.initialize(convo.getContext(), pager);
 
                 convo.begin();
                 return;
             }
-            
-            // Fall through...
-        }
 
-        // Don't bother with pager
-        for (String line : lines) {
-            sender.sendMessage(line);
+            // Fits on a single page
+            outputLines = new ArrayList<String>(LINES_PER_PAGE);
+            for (int page = 0; pager.hasPage(page); page++)
+                outputLines.addAll(pager.getPage(page));
         }
+        else {
+            // Don't bother with pager
+            outputLines = new ArrayList<String>();
+            while (lines.hasNext())
+                outputLines.add(lines.next());
+        }
+
+        sender.sendMessage(outputLines.toArray(new String[outputLines.size()]));
     }
 
 }
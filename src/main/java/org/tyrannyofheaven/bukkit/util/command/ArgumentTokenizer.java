@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.Arrays;
+
+/**
+ * Quote-aware tokenizer that works directly on Bukkit's space-split
+ * arguments. The arguments are treated as if they were joined with single
+ * spaces, but no joined string is built. Arguments that need no unquoting
+ * are used as-is.
+ * 
+ * <p>Within the joined view, double quotes group words into a single token
+ * and backslash escapes a double quote or backslash.
+ * 
+ * @author asaddi
+ */
+final class ArgumentTokenizer {
+
+    private String[] tokens = new String[4];
+
+    private int size;
+
+    /**
+     * Tokenize the first <code>count</code> arguments.
+     * 
+     * @param args the arguments as split by Bukkit
+     * @param count the number of arguments to tokenize
+     */
+    ArgumentTokenizer(String[] args, int count) {
+        if (count < 0 || count > args.length)
+            throw new IllegalArgumentException("count out of range");
+
+        State state = State.NORMAL;
+        StringBuilder current = new StringBuilder();
+
+        for (int a = 0; a < count; a++) {
+            String arg = args[a];
+
+            if (a > 0) {
+                // The joining space
+                if (state == State.NORMAL) {
+                    if (current.length() > 0) {
+                        add(current.toString());
+                        current.setLength(0);
+                    }
+                }
+                else if (state == State.QUOTED) {
+                    current.append(' ');
+                }
+                else {
+                    // Not a valid escape
+                    current.append('\\').append(' ');
+                    state = state == State.ESCAPED ? State.NORMAL : State.QUOTED;
+                }
+            }
+
+            // Fast path: a whole argument that needs no unquoting
+            if (state == State.NORMAL && current.length() == 0 && isPlain(arg)) {
+                if (arg.length() > 0)
+                    add(arg);
+                continue;
+            }
+
+            for (int i = 0; i < arg.length(); i++) {
+                char c = arg.charAt(i);
+
+                switch (state) {
+                case NORMAL:
+                    if (c == '\\') {
+                        // Start of escape sequence
+                        state = State.ESCAPED;
+                    }
+                    else if (c == '"') {
+                        // Open quotes
+                        state = State.QUOTED;
+                    }
+                    else if (Character.isWhitespace(c)) {
+                        // End of token, if any
+                        if (current.length() > 0) {
+                            add(current.toString());
+                            current.setLength(0);
+                        }
+                    }
+                    else {
+                        current.append(c);
+                    }
+                    break;
+                case ESCAPED:
+                case QUOTED_ESCAPED:
+                    if (c == '\\') {
+                        current.append('\\');
+                    }
+                    else if (c == '"') {
+                        current.append('"');
+                    }
+                    else {
+                        // Not a valid escape
+                        current.append('\\');
+                        current.append(c);
+                    }
+                    state = state == State.ESCAPED ? State.NORMAL : State.QUOTED;
+                    break;
+                case QUOTED:
+                    if (c == '\\') {
+                        state = State.QUOTED_ESCAPED;
+                    }
+                    else if (c == '"') {
+                        // Close quotes
+                        state = State.NORMAL;
+                    }
+                    else {
+                        // Append unconditionally
+                        current.append(c);
+                    }
+                    break;
+                default:
+                    throw new AssertionError("Unhandled State." + state);
+                }
+            }
+        }
+
+        // Check final token
+        if (current.length() > 0)
+            add(current.toString());
+    }
+
+    // True if the argument is a token by itself
+    private static boolean isPlain(String arg) {
+        for (int i = 0; i < arg.length(); i++) {
+            char c = arg.charAt(i);
+            if (c == '\\' || c == '"' || Character.isWhitespace(c))
+                return false;
+        }
+        return true;
+    }
+
+    private void add(String token) {
+        if (size == tokens.length)
+            tokens = Arrays.copyOf(tokens, size * 2);
+        tokens[size++] = token;
+    }
+
+    /**
+     * Returns the number of tokens.
+     * 
+     * @return the number of tokens
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the tokens.
+     * 
+     * @param extra number of empty slots to leave at the end of the array
+     * @return a new array holding the tokens followed by <code>extra</code> nulls
+     */
+    String[] getTokens(int extra) {
+        return Arrays.copyOf(tokens, size + extra);
+    }
+
+    private static enum State {
+        NORMAL, ESCAPED, QUOTED, QUOTED_ESCAPED;
+    }
+
+}
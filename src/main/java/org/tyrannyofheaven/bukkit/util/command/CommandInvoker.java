@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+/**
+ * Calls a command handler method. One is created for each command when
+ * handlers are processed.
+ *
+ * <p>This is only public so generated invokers (which live in their own
+ * ClassLoader) can implement it. Plugins should not implement it.
+ *
+ * @author asaddi
+ */
+public interface CommandInvoker {
+
+    /**
+     * Invoke the handler method.
+     *
+     * @param handler the handler object. Ignored for static methods.
+     * @param args the method arguments
+     * @return the method's return value or null if the method is void
+     * @throws Throwable anything thrown by the handler method (unwrapped)
+     */
+    public Object invoke(Object handler, Object[] args) throws Throwable;
+
+}
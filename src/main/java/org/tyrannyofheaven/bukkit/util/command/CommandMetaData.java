@@ -21,7 +21,11 @@ import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import org.tyrannyofheaven.bukkit.util.permissions.PermissionRequirement;
 
 /**
  * Metadata for a command.
@@ -30,10 +34,19 @@ import java.util.List;
  */
 final class CommandMetaData {
 
+    // Single-character flags in this range are looked up by array index
+    private static final int SHORT_FLAG_INDEX_SIZE = 128;
+
     private final Object handler;
 
     private final Method method;
 
+    private final CommandInvoker invoker;
+
+    private final Class<?> subCommandHandlerClass;
+
+    private final boolean subCommandHandlerDeclared;
+
     private final List<MethodParameter> parameters;
 
     private final String[] permissions;
@@ -42,6 +55,8 @@ final class CommandMetaData {
 
     private final boolean checkNegations;
 
+    private final PermissionRequirement permissionRequirement;
+
     private final String description;
 
     private final boolean hasRest;
@@ -50,22 +65,27 @@ final class CommandMetaData {
 
     private final String completer;
 
+    private final CompleterSpec completerSpec;
+
     private final List<OptionMetaData> flagOptions;
     
     private final List<OptionMetaData> positionalArguments;
 
+    private final Map<String, OptionMetaData> flagIndex;
+
+    private final OptionMetaData[] shortFlagIndex;
+
     /**
      * Create a CommandMetaData with the given arguments.
      * 
-     * @param handler the handler object
+     * @param handler the handler object or <code>null</code> if this
+     *   metadata is not yet bound to an instance (see {@link #bind(Object)})
      * @param method the associated method in the handler object
      * @param options method parameters
      * @param permissions required permissions, if any
      * @param requireAll true if all permissions are required
      */
     public CommandMetaData(Object handler, Method method, List<MethodParameter> options, String[] permissions, boolean requireAll, boolean checkNegations, String description, boolean hasRest, String rest, String completer) {
-        if (handler == null)
-            throw new IllegalArgumentException("handler cannot be null");
         if (method == null)
             throw new IllegalArgumentException("method cannot be null");
         
@@ -82,21 +102,41 @@ final class CommandMetaData {
 
         this.handler = handler;
         this.method = method;
+        this.invoker = InvokerGenerator.createInvoker(method);
+
+        // Sub-command handler class, if declared. Not inferred from the
+        // return type: the method may return a subclass, null, or a handler
+        // chosen at runtime.
+        SubCommandHandler subCommandHandler = method.getAnnotation(SubCommandHandler.class);
+        if (subCommandHandler != null) {
+            this.subCommandHandlerClass = subCommandHandler.value();
+            this.subCommandHandlerDeclared = true;
+        }
+        else {
+            this.subCommandHandlerClass = null;
+            this.subCommandHandlerDeclared = false;
+        }
+
         this.permissions = Arrays.copyOf(permissions, permissions.length);
         this.requireAll = requireAll;
         this.checkNegations = checkNegations;
+        this.permissionRequirement = permissions.length == 0 ? PermissionRequirement.NONE : new PermissionRequirement(requireAll, checkNegations, permissions);
         this.description = description;
         this.hasRest = hasRest;
         this.rest = rest;
         this.completer = completer;
+        this.completerSpec = CompleterSpec.parse(completer);
 
         this.parameters = Collections.unmodifiableList(new ArrayList<MethodParameter>(options));
         
         List<OptionMetaData> flagOptions = new ArrayList<OptionMetaData>();
         List<OptionMetaData> positionalArguments = new ArrayList<OptionMetaData>();
-        for (MethodParameter mp : this.parameters) {
+        for (int i = 0; i < this.parameters.size(); i++) {
+            MethodParameter mp = this.parameters.get(i);
             if (mp instanceof OptionMetaData) {
                 OptionMetaData omd = (OptionMetaData)mp;
+                if (omd.getParameterIndex() != i)
+                    throw new IllegalArgumentException("parameterIndex does not match position of " + omd.getName());
                 if (omd.isArgument()) {
                     positionalArguments.add(omd);
                 }
@@ -108,6 +148,61 @@ final class CommandMetaData {
         
         this.flagOptions = Collections.unmodifiableList(flagOptions);
         this.positionalArguments = Collections.unmodifiableList(positionalArguments);
+
+        // Index flags by every name. Single-character flags (the ones that
+        // may be combined, e.g. -abc) are also indexed by character.
+        Map<String, OptionMetaData> flagIndex = new HashMap<String, OptionMetaData>();
+        OptionMetaData[] shortFlagIndex = new OptionMetaData[flagOptions.isEmpty() ? 0 : SHORT_FLAG_INDEX_SIZE];
+        for (OptionMetaData omd : flagOptions) {
+            for (String name : omd.getNames()) {
+                if (flagIndex.containsKey(name))
+                    continue; // first one wins
+                flagIndex.put(name, omd);
+                if (name.length() == 2 && name.charAt(1) < SHORT_FLAG_INDEX_SIZE && name.charAt(1) != '-')
+                    shortFlagIndex[name.charAt(1)] = omd;
+            }
+        }
+        this.flagIndex = Collections.unmodifiableMap(flagIndex);
+        this.shortFlagIndex = shortFlagIndex;
+    }
+
+    // Copy of template bound to a different handler object. Everything else
+    // (including the invoker) is immutable and shared.
+    private CommandMetaData(CommandMetaData template, Object handler) {
+        this.handler = handler;
+        this.method = template.method;
+        this.invoker = template.invoker;
+        this.subCommandHandlerClass = template.subCommandHandlerClass;
+        this.subCommandHandlerDeclared = template.subCommandHandlerDeclared;
+        this.parameters = template.parameters;
+        this.permissions = template.permissions;
+        this.requireAll = template.requireAll;
+        this.checkNegations = template.checkNegations;
+        this.permissionRequirement = template.permissionRequirement;
+        this.description = template.description;
+        this.hasRest = template.hasRest;
+        this.rest = template.rest;
+        this.completer = template.completer;
+        this.completerSpec = template.completerSpec;
+        this.flagOptions = template.flagOptions;
+        this.positionalArguments = template.positionalArguments;
+        this.flagIndex = template.flagIndex;
+        this.shortFlagIndex = template.shortFlagIndex;
+    }
+
+    /**
+     * Return a copy of this metadata bound to the given handler object.
+     * 
+     * @param handler the handler object, an instance of the method's class
+     * @return the bound CommandMetaData
+     */
+    public CommandMetaData bind(Object handler) {
+        if (handler == null)
+            throw new IllegalArgumentException("handler cannot be null");
+        if (!method.getDeclaringClass().isInstance(handler))
+            throw new IllegalArgumentException("handler is not an instance of " + method.getDeclaringClass().getName());
+
+        return new CommandMetaData(this, handler);
     }
 
     /**
@@ -128,6 +223,31 @@ final class CommandMetaData {
         return flagOptions;
     }
 
+    /**
+     * Look up a flag by any of its names.
+     * 
+     * @param flag the flag, including leading dash(es)
+     * @return the flag's OptionMetaData or null if there is no such flag
+     */
+    public OptionMetaData getFlagOption(String flag) {
+        return flagIndex.get(flag);
+    }
+
+    /**
+     * Look up a single-character flag, e.g. 'f' for -f.
+     * 
+     * @param flag the flag character
+     * @return the flag's OptionMetaData or null if there is no such flag
+     */
+    public OptionMetaData getFlagOption(char flag) {
+        if (flag < shortFlagIndex.length)
+            return shortFlagIndex[flag];
+        else if (flag >= SHORT_FLAG_INDEX_SIZE)
+            return flagIndex.get("-" + flag);
+        else
+            return null; // no flags at all
+    }
+
     /**
      * Return metadata for any positional arguments.
      * 
@@ -140,7 +260,7 @@ final class CommandMetaData {
     /**
      * Returns the handler object.
      * 
-     * @return the handler object
+     * @return the handler object or <code>null</code> if unbound
      */
     public Object getHandler() {
         return handler;
@@ -155,6 +275,36 @@ final class CommandMetaData {
         return method;
     }
 
+    /**
+     * Returns the class of the sub-command handler returned by the handler
+     * method, as given by {@link SubCommandHandler}.
+     * 
+     * @return the sub-command handler class or <code>null</code> if the
+     *   method isn't annotated with {@link SubCommandHandler}
+     */
+    public Class<?> getSubCommandHandlerClass() {
+        return subCommandHandlerClass;
+    }
+
+    /**
+     * Returns whether the sub-command handler class was declared using
+     * {@link SubCommandHandler}.
+     * 
+     * @return true if the sub-command handler class was declared
+     */
+    public boolean isSubCommandHandlerDeclared() {
+        return subCommandHandlerDeclared;
+    }
+
+    /**
+     * Returns the CommandInvoker for the handler method.
+     * 
+     * @return the CommandInvoker
+     */
+    public CommandInvoker getInvoker() {
+        return invoker;
+    }
+
     /**
      * Returns the permissions, if any.
      * 
@@ -183,6 +333,16 @@ final class CommandMetaData {
         return checkNegations;
     }
 
+    /**
+     * Returns the permissions, whether all are required and whether negations
+     * are checked, as a single requirement.
+     * 
+     * @return the permission requirement. Will never be <code>null</code>.
+     */
+    public PermissionRequirement getPermissionRequirement() {
+        return permissionRequirement;
+    }
+
     /**
      * Returns the associated command description.
      * 
@@ -219,4 +379,13 @@ final class CommandMetaData {
         return completer;
     }
 
+    /**
+     * Returns the parsed completer specification for each vararg word.
+     * 
+     * @return the completer specification, or null
+     */
+    CompleterSpec getCompleterSpec() {
+        return completerSpec;
+    }
+
 }
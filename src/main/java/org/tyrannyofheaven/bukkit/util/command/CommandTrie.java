@@ -0,0 +1,183 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Maps command names (and aliases) to their CommandMetaData. Supports exact
+ * lookup, which is case-sensitive, and enumeration by prefix, which is
+ * case-insensitive like {@link org.bukkit.util.StringUtil#copyPartialMatches(String, Iterable, Collection)}.
+ * 
+ * <p>Populated once during registration. Not safe for concurrent
+ * modification, but safe for concurrent reads once published.
+ * 
+ * @author asaddi
+ */
+final class CommandTrie {
+
+    private static final char[] NO_KEYS = new char[0];
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private static final String[] NO_NAMES = new String[0];
+
+    private static final CommandMetaData[] NO_VALUES = new CommandMetaData[0];
+
+    private final Node root = new Node();
+
+    private int size;
+
+    /**
+     * Add a command name.
+     * 
+     * @param name the command name or alias
+     * @param cmd the CommandMetaData
+     * @return the CommandMetaData previously associated with the name, if any
+     */
+    CommandMetaData put(String name, CommandMetaData cmd) {
+        if (name == null)
+            throw new IllegalArgumentException("name cannot be null");
+        if (cmd == null)
+            throw new IllegalArgumentException("cmd cannot be null");
+
+        Node node = root;
+        for (int i = 0; i < name.length(); i++) {
+            node = node.getOrAddChild(Character.toLowerCase(name.charAt(i)));
+        }
+
+        // Names differing only by case end on the same node
+        for (int i = 0; i < node.names.length; i++) {
+            if (node.names[i].equals(name)) {
+                CommandMetaData old = node.values[i];
+                node.values[i] = cmd;
+                return old;
+            }
+        }
+        node.names = Arrays.copyOf(node.names, node.names.length + 1);
+        node.values = Arrays.copyOf(node.values, node.values.length + 1);
+        node.names[node.names.length - 1] = name;
+        node.values[node.values.length - 1] = cmd;
+        size++;
+        return null;
+    }
+
+    /**
+     * Look up a command by exact name.
+     * 
+     * @param name the command name or alias
+     * @return the CommandMetaData or null if there is no such command
+     */
+    CommandMetaData get(String name) {
+        Node node = find(name);
+        if (node != null) {
+            for (int i = 0; i < node.names.length; i++) {
+                if (node.names[i].equals(name))
+                    return node.values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Collect all command names (including aliases) starting with the given
+     * prefix, ignoring case. Names are added in lexicographic order of their
+     * lower case forms.
+     * 
+     * @param prefix the prefix
+     * @param destination collection to add matching names to
+     * @return destination
+     */
+    <T extends Collection<? super String>> T getPrefixMatches(String prefix, T destination) {
+        if (destination == null)
+            throw new IllegalArgumentException("destination cannot be null");
+
+        Node node = find(prefix);
+        if (node != null)
+            node.collect(destination);
+        return destination;
+    }
+
+    /**
+     * Returns the number of names.
+     * 
+     * @return the number of names
+     */
+    int size() {
+        return size;
+    }
+
+    // Walk to the node for the given (case-folded) string
+    private Node find(String name) {
+        if (name == null)
+            return null;
+
+        Node node = root;
+        for (int i = 0; i < name.length() && node != null; i++) {
+            node = node.getChild(Character.toLowerCase(name.charAt(i)));
+        }
+        return node;
+    }
+
+    private static final class Node {
+
+        // Sorted, for binary search and ordered enumeration
+        private char[] keys = NO_KEYS;
+
+        private Node[] children = NO_CHILDREN;
+
+        private String[] names = NO_NAMES;
+
+        private CommandMetaData[] values = NO_VALUES;
+
+        private Node getChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index >= 0 ? children[index] : null;
+        }
+
+        private Node getOrAddChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0)
+                return children[index];
+
+            // Insert, keeping keys sorted
+            index = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            newKeys[index] = c;
+            newChildren[index] = new Node();
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            keys = newKeys;
+            children = newChildren;
+            return newChildren[index];
+        }
+
+        private void collect(Collection<? super String> destination) {
+            for (String name : names) {
+                destination.add(name);
+            }
+            for (Node child : children) {
+                child.collect(destination);
+            }
+        }
+
+    }
+
+}
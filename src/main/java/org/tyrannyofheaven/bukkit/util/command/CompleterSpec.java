@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
+
+/**
+ * A parsed completer specification of the form <code>name</code> or
+ * <code>name:arg</code>. Specifications come from annotations and are parsed
+ * once, when metadata is created.
+ * 
+ * @author asaddi
+ */
+final class CompleterSpec {
+
+    private final String name;
+
+    private final String arg;
+
+    private CompleterSpec(String name, String arg) {
+        this.name = name;
+        this.arg = arg;
+    }
+
+    /**
+     * Parse a completer specification.
+     * 
+     * @param completer the specification
+     * @return the parsed specification, or null if completer has no text
+     */
+    static CompleterSpec parse(String completer) {
+        if (!hasText(completer))
+            return null;
+
+        int colon = completer.indexOf(':');
+        if (colon < 0)
+            return new CompleterSpec(completer, null);
+        else
+            return new CompleterSpec(completer.substring(0, colon), completer.substring(colon + 1));
+    }
+
+    /**
+     * Returns the name of the registered TypeCompleter.
+     * 
+     * @return the TypeCompleter name
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the argument to pass to the TypeCompleter.
+     * 
+     * @return the argument, or null
+     */
+    String getArg() {
+        return arg;
+    }
+
+}
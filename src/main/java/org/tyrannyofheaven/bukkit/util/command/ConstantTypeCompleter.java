@@ -16,8 +16,11 @@
 package org.tyrannyofheaven.bukkit.util.command;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.bukkit.command.CommandSender;
 import org.bukkit.util.StringUtil;
@@ -25,23 +28,63 @@ import org.bukkit.util.StringUtil;
 /**
  * Simple TypeCompleter that simply returns the arguments (whitespace-separated).
  * 
+ * <p>Each distinct argument is split once into a sorted (case-insensitively)
+ * array. Completion is then a binary search for the first match.
+ * 
  * @author asaddi
  */
 class ConstantTypeCompleter implements TypeCompleter {
 
+    // Arguments come from annotations, so this is bounded
+    private final ConcurrentMap<String, String[]> constantsCache = new ConcurrentHashMap<String, String[]>();
+
     @Override
     public List<String> complete(Class<?> clazz, String arg, CommandSender sender, String partial) {
         if (arg != null) {
-            List<String> result = new ArrayList<String>();
-            String[] parts = arg.split("\\s+");
-            for (String part : parts) {
+            return getPrefixMatches(getConstants(arg), partial);
+        }
+        return Collections.emptyList();
+    }
+
+    // Retrieve the sorted constants for the given argument, splitting it if
+    // it hasn't been seen yet
+    String[] getConstants(String arg) {
+        String[] constants = constantsCache.get(arg);
+        if (constants == null) {
+            List<String> parts = new ArrayList<String>();
+            for (String part : arg.split("\\s+")) {
                 part = part.trim();
-                if (!part.isEmpty() && StringUtil.startsWithIgnoreCase(part, partial))
-                    result.add(part);
+                if (!part.isEmpty())
+                    parts.add(part);
             }
-            return result;
+            constants = parts.toArray(new String[parts.size()]);
+            Arrays.sort(constants, String.CASE_INSENSITIVE_ORDER);
+
+            String[] old = constantsCache.putIfAbsent(arg, constants);
+            if (old != null)
+                constants = old;
         }
-        return Collections.emptyList();
+        return constants;
+    }
+
+    // Case-insensitive prefix matches from sorted constants
+    static List<String> getPrefixMatches(String[] constants, String partial) {
+        // Matches are contiguous, starting at the insertion point of partial
+        int start = Arrays.binarySearch(constants, partial, String.CASE_INSENSITIVE_ORDER);
+        if (start < 0) {
+            start = -(start + 1);
+        }
+        else {
+            // Exact match, but duplicates may precede it
+            while (start > 0 && String.CASE_INSENSITIVE_ORDER.compare(constants[start - 1], partial) == 0)
+                start--;
+        }
+
+        List<String> result = new ArrayList<String>();
+        for (int i = start; i < constants.length && StringUtil.startsWithIgnoreCase(constants[i], partial); i++) {
+            result.add(constants[i]);
+        }
+        return result;
     }
 
 }
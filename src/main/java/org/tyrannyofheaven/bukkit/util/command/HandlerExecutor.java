@@ -15,24 +15,21 @@
  */
 package org.tyrannyofheaven.bukkit.util.command;
 
-import static org.tyrannyofheaven.bukkit.util.permissions.PermissionUtils.requireAllPermissions;
-import static org.tyrannyofheaven.bukkit.util.permissions.PermissionUtils.requireOnePermission;
+import static org.tyrannyofheaven.bukkit.util.permissions.PermissionUtils.requirePermissions;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.bukkit.Server;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.command.TabExecutor;
@@ -40,6 +37,9 @@ import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.util.StringUtil;
 import org.tyrannyofheaven.bukkit.util.ToHLoggingUtils;
+import org.tyrannyofheaven.bukkit.util.permissions.PermissionRequirement;
+
+import com.google.common.collect.MapMaker;
 
 /**
  * The main class that drives annotation-driven command parsing.
@@ -48,42 +48,28 @@ import org.tyrannyofheaven.bukkit.util.ToHLoggingUtils;
  */
 final class HandlerExecutor<T extends Plugin> {
 
-    private static final Map<Class<?>, Class<?>> primitiveWrappers;
-
-    private static final Set<Class<?>> supportedParameterTypes;
-    
     private final T plugin;
 
     private final UsageOptions usageOptions;
 
-    private final Map<String, CommandMetaData> commandMap = new HashMap<String, CommandMetaData>();
+    private final CommandTrie commandTrie = new CommandTrie();
 
-    private final Map<Object, HandlerExecutor<T>> subCommandMap = new WeakHashMap<Object, HandlerExecutor<T>>();
+    // Keyed by identity. Each HandlerExecutor strongly references its handler
+    // (through the bound CommandMetaData), so values must be weak too, or no
+    // key would ever be collected. Sub-command methods that return a new
+    // handler each time therefore don't accumulate executors; they just don't
+    // benefit from the cache. Class metadata is still shared, so creating a
+    // HandlerExecutor for an already-seen class only binds.
+    private final ConcurrentMap<Object, HandlerExecutor<T>> subCommandMap = new MapMaker().weakKeys().weakValues().makeMap();
+
+    // Handler class metadata, shared with all sub-command HandlerExecutors
+    private final ConcurrentMap<Class<?>, HandlerMetaData> handlerMetaDataCache;
 
     private final Set<String> commandList = new TreeSet<String>();
 
-    static {
-        // Build map of primitives to primitive wrappers
-        Map<Class<?>, Class<?>> wrappers = new HashMap<Class<?>, Class<?>>();
-        wrappers.put(Boolean.TYPE, Boolean.class);
-        wrappers.put(Byte.TYPE, Byte.class);
-        wrappers.put(Short.TYPE, Short.class);
-        wrappers.put(Integer.TYPE, Integer.class);
-        wrappers.put(Long.TYPE, Long.class);
-        wrappers.put(Float.TYPE, Float.class);
-        wrappers.put(Double.TYPE, Double.class);
-        primitiveWrappers = Collections.unmodifiableMap(wrappers);
-
-        // Build set of supported parameter types
-        Set<Class<?>> types = new HashSet<Class<?>>();
-        types.add(String.class);
-        for (Map.Entry<Class<?>, Class<?>> me : primitiveWrappers.entrySet()) {
-            types.add(me.getKey());
-            types.add(me.getValue());
-        }
-        supportedParameterTypes = Collections.unmodifiableSet(types);
-    }
-    
+    // Rendered usage strings, shared with all sub-command HandlerExecutors
+    private final UsageStringCache usageStringCache;
+
     /**
      * Create a HandlerExecutor instance.
      * 
@@ -92,6 +78,10 @@ final class HandlerExecutor<T extends Plugin> {
      * @param handlers handler objects
      */
     HandlerExecutor(T plugin, UsageOptions usageOptions, Object... handlers) {
+        this(plugin, usageOptions, new ConcurrentHashMap<Class<?>, HandlerMetaData>(), new UsageStringCache(), handlers);
+    }
+
+    private HandlerExecutor(T plugin, UsageOptions usageOptions, ConcurrentMap<Class<?>, HandlerMetaData> handlerMetaDataCache, UsageStringCache usageStringCache, Object... handlers) {
         if (plugin == null)
             throw new IllegalArgumentException("plugin cannot be null");
         if (usageOptions == null)
@@ -101,6 +91,8 @@ final class HandlerExecutor<T extends Plugin> {
 
         this.plugin = plugin;
         this.usageOptions = usageOptions;
+        this.handlerMetaDataCache = handlerMetaDataCache;
+        this.usageStringCache = usageStringCache;
         processHandlers(handlers);
     }
 
@@ -115,197 +107,72 @@ final class HandlerExecutor<T extends Plugin> {
         this(plugin, new DefaultUsageOptions(), handlers);
     }
 
-    // Analyze each handler object and create/store the appropriate metadata
-    // classes.
+    // Bind each handler object's class metadata to the handler and store
+    // the resulting CommandMetaData.
     private void processHandlers(Object[] handlers) {
         for (Object handler : handlers) {
-            Class<?> clazz = handler.getClass();
-            // Scan each method
-            for (Method method : clazz.getMethods()) {
-                // Handle @Require if present
-                Require require = method.getAnnotation(Require.class);
-                String[] permissions = new String[0];
-                boolean requireAll = false;
-                boolean checkNegations = false;
-                if (require != null) {
-                    permissions = require.value();
-                    requireAll = require.all();
-                    checkNegations = require.checkNegations();
+            HandlerMetaData hmd = getHandlerMetaData(handler.getClass());
+
+            // Aliases share CommandMetaData, so only bind each once
+            Map<CommandMetaData, CommandMetaData> bound = new IdentityHashMap<CommandMetaData, CommandMetaData>();
+            for (Map.Entry<String, CommandMetaData> me : hmd.getCommandMap().entrySet()) {
+                CommandMetaData cmd = bound.get(me.getValue());
+                if (cmd == null) {
+                    cmd = me.getValue().bind(handler);
+                    bound.put(me.getValue(), cmd);
                 }
-
-                // @Command or @SubCommand present?
-                Command command = method.getAnnotation(Command.class);
-
-                if (command != null) {
-                    // Handle @Command
-                    List<MethodParameter> options = new ArrayList<MethodParameter>();
-
-                    boolean hasLabel = false;
-                    boolean hasRest = false; // There can be only one!
-
-                    // Scan each parameter
-                    for (int i = 0; i < method.getParameterTypes().length; i++) {
-                        Class<?> paramType = method.getParameterTypes()[i];
-                        Annotation[] anns = method.getParameterAnnotations()[i];
-
-                        MethodParameter ma = null;
-                        
-                        // Special parameter type?
-                        if (paramType.isAssignableFrom(Server.class)) {
-                            ma = new SpecialParameter(SpecialParameter.Type.SERVER);
-                        }
-                        else if (paramType.isAssignableFrom(plugin.getClass())) {
-                            ma = new SpecialParameter(SpecialParameter.Type.PLUGIN);
-                        }
-                        else if (paramType.isAssignableFrom(CommandSender.class)) {
-                            ma = new SpecialParameter(SpecialParameter.Type.COMMAND_SENDER);
-                        }
-                        else if (paramType.isAssignableFrom(HelpBuilder.class)) {
-                            ma = new SpecialParameter(SpecialParameter.Type.USAGE_BUILDER);
-                        }
-                        else if (paramType.isAssignableFrom(CommandSession.class)) {
-                            ma = new SpecialParameter(SpecialParameter.Type.SESSION);
-                        }
-                        else if (paramType.isArray() && paramType.getComponentType() == String.class) {
-                            if (hasRest) {
-                                throw new CommandException("Method already has a String[] parameter (%s#%s)", handler.getClass().getName(), method.getName());
-                            }
-
-                            ma = new SpecialParameter(SpecialParameter.Type.REST);
-                            hasRest = true;
-                        }
-                        else {
-                            // Grab the @Option and @Session annotations
-                            Option optAnn = null;
-                            Session sessAnn = null;
-                            for (Annotation ann : anns) {
-                                if (ann instanceof Option) {
-                                    optAnn = (Option)ann;
-                                }
-                                else if (ann instanceof Session) {
-                                    sessAnn = (Session)ann;
-                                }
-                            }
-
-                            // Both must not be present
-                            if (optAnn != null && sessAnn != null) {
-                                throw new CommandException("Parameter cannot have both @Option and @Session annotations (%s#%s)", handler.getClass().getName(), method.getName());
-                            }
-                            else if (sessAnn != null) {
-                                // @Session
-                                ma = new SessionParameter(sessAnn.value(), paramType);
-                            }
-                            else if (optAnn != null) {
-                                // @Option
-                                
-                                // Supported parameter type?
-                                if (!supportedParameterTypes.contains(paramType)) {
-                                    throw new CommandException("Unsupported parameter type: %s (%s#%s)", paramType, handler.getClass().getName(), method.getName());
-                                }
-
-                                ma = new OptionMetaData(optAnn.value(), optAnn.valueName(), paramType, optAnn.optional(), optAnn.nullable(), optAnn.completer());
-                            }
-                            else {
-                                // Not annotated at all
-
-                                // Is it a String parameter?
-                                if (paramType == String.class) {
-                                    if (hasLabel) {
-                                        throw new CommandException("Method already has an unannotated String parameter (%s#%s)", handler.getClass().getName(), method.getName());
-                                    }
-                                    
-                                    ma = new SpecialParameter(SpecialParameter.Type.LABEL);
-                                    hasLabel = true;
-                                }
-                                else
-                                    throw new CommandException("Non-special parameters must be annotated with @Option (%s#%s)", handler.getClass().getName(), method.getName());
-                            }
-                        }
-                        
-                        options.add(ma);
-                    }
-
-                    // Some validation of option ordering
-                    // Flags (-f, --flag) can appear anywhere.
-                    // Optional arguments must follow positional ones.
-                    // Nullable arguments must follow non-nullable ones.
-                    List<MethodParameter> reversed = new ArrayList<MethodParameter>(options);
-                    Collections.reverse(reversed); // easier to do this in reverse
-                    boolean positional = false; // true if positional arguments have started
-                    boolean nonNullable = false; // true if non-nullable arguments have started
-                    for (MethodParameter ma : reversed) {
-                        if (!(ma instanceof OptionMetaData)) continue;
-                        OptionMetaData omd = (OptionMetaData)ma;
-                        if (omd.isArgument()) {
-                            if (!omd.isOptional()) {
-                                positional = true;
-                            }
-                            else if (positional) {
-                                throw new CommandException("Optional parameters must follow all non-optional ones (%s#%s)", handler.getClass().getName(), method.getName());
-                            }
-                            
-                            if (!omd.isNullable()) {
-                                nonNullable = true;
-                            }
-                            else if (nonNullable) {
-                                throw new CommandException("Nullable parameters must follow all non-nullable ones (%s#%s)", handler.getClass().getName(), method.getName());
-                            }
-                        }
-                    }
-
-                    CommandMetaData cmd = new CommandMetaData(handler, method, options, permissions, requireAll, checkNegations, command.description(), hasRest, hasRest ? command.varargs() : null, hasRest ? command.completer() : null);
-                    for (String commandName : command.value()) {
-                        if (commandMap.put(commandName, cmd) != null) {
-                            throw new CommandException("Duplicate command: %s (%s#%s)", commandName, handler.getClass().getName(), method.getName());
-                        }
-                    }
-                    
-                    // Track unaliased name for easy registration
-                    // Dupes would have been handled above
-                    commandList.add(command.value()[0]);
+                if (commandTrie.put(me.getKey(), cmd) != null) {
+                    throw new CommandException("Duplicate command: %s (%s#%s)", me.getKey(), handler.getClass().getName(), cmd.getMethod().getName());
                 }
             }
+
+            // Track unaliased name for easy registration
+            commandList.addAll(hmd.getCommandList());
         }
     }
 
-    // Convert string to boolean (a little more friendlier than Boolean.valueOf(String))
-    private boolean toBoolean(String text) {
-        text = text.trim().toLowerCase();
-        if ("true".equals(text) || "t".equals(text) || "yes".equals(text) || "y".equals(text) || "on".equals(text))
-            return true;
-        else if ("false".equals(text) || "f".equals(text) || "no".equals(text) || "n".equals(text) || "off".equals(text))
-            return false;
-        else
-            throw new IllegalArgumentException("Cannot convert string to boolean");
+    // Retrieve cached metadata for the given handler class, going to the
+    // shared registry if it hasn't been seen yet. Holding it here is also
+    // what keeps it alive in the registry. Package-private for tests.
+    HandlerMetaData getHandlerMetaData(Class<?> clazz) {
+        HandlerMetaData hmd = handlerMetaDataCache.get(clazz);
+        if (hmd == null) {
+            hmd = HandlerMetaDataRegistry.getHandlerMetaData(clazz, plugin.getClass());
+            HandlerMetaData old = handlerMetaDataCache.putIfAbsent(clazz, hmd);
+            if (old != null)
+                hmd = old; // lost the race, doesn't matter which one we use
+        }
+        return hmd;
     }
 
     // Given parsed arguments and metadata, create an argument list suitable
-    // for reflective invoke.
+    // for invoke.
     private Object[] buildMethodArgs(CommandMetaData cmd, CommandSender sender, ParsedArgs pa, String label, InvocationChain invChain, CommandSession session, Set<String> possibleCommands) throws Throwable {
-        List<Object> result = new ArrayList<Object>(cmd.getParameters().size());
-        for (MethodParameter mp : cmd.getParameters()) {
+        Object[] result = new Object[cmd.getParameters().size()];
+        for (int i = 0; i < result.length; i++) {
+            MethodParameter mp = cmd.getParameters().get(i);
             if (mp instanceof SpecialParameter) {
                 SpecialParameter sp = (SpecialParameter)mp;
                 if (sp.getType() == SpecialParameter.Type.SERVER) {
-                    result.add(plugin.getServer());
+                    result[i] = plugin.getServer();
                 }
                 else if (sp.getType() == SpecialParameter.Type.PLUGIN) {
-                    result.add(plugin);
+                    result[i] = plugin;
                 }
                 else if (sp.getType() == SpecialParameter.Type.COMMAND_SENDER) {
-                    result.add(sender);
+                    result[i] = sender;
                 }
                 else if (sp.getType() == SpecialParameter.Type.LABEL) {
-                    result.add(label);
+                    result[i] = label;
                 }
                 else if (sp.getType() == SpecialParameter.Type.USAGE_BUILDER) {
-                    result.add(getHelpBuilder(invChain, possibleCommands));
+                    result[i] = getHelpBuilder(invChain, possibleCommands);
                 }
                 else if (sp.getType() == SpecialParameter.Type.SESSION) {
-                    result.add(session);
+                    result[i] = session;
                 }
                 else if (sp.getType() == SpecialParameter.Type.REST) {
-                    result.add(pa.getRest());
+                    result[i] = pa.getRest();
                 }
                 else {
                     throw new AssertionError("Unknown SpecialParameter type");
@@ -313,14 +180,14 @@ final class HandlerExecutor<T extends Plugin> {
             }
             else if (mp instanceof OptionMetaData) {
                 OptionMetaData omd = (OptionMetaData)mp;
-                String text = pa.getOption(omd.getName());
+                String text = pa.getValue(omd);
 
                 // If Boolean or boolean, treat specially
                 if (omd.getType() == Boolean.class || omd.getType() == Boolean.TYPE) {
                     if (omd.isArgument()) {
                         if (text != null) {
                             try {
-                                result.add(toBoolean(text));
+                                result[i] = omd.getConverter().convert(text);
                             }
                             catch (IllegalArgumentException e) {
                                 throw new ParseException("Invalid boolean: %s", omd.getName());
@@ -328,7 +195,7 @@ final class HandlerExecutor<T extends Plugin> {
                         }
                         else if (!omd.isOptional()) {
                             if (omd.isNullable()) {
-                                result.add(null);
+                                result[i] = null;
                             }
                             else {
                                 // Missing positional argument
@@ -339,46 +206,28 @@ final class HandlerExecutor<T extends Plugin> {
                             // Flag not specified
                             // Set to false if primitive, null if wrapper
                             if (omd.getType() == Boolean.TYPE) {
-                                result.add(Boolean.FALSE);
+                                result[i] = Boolean.FALSE;
                             }
                             else {
-                                result.add(null);
+                                result[i] = null;
                             }
                         }
                     }
                     else {
                         // Flag
-                        result.add(Boolean.valueOf(text != null));
+                        result[i] = Boolean.valueOf(text != null);
                     }
                 }
                 else if (text != null) {
-                    if (omd.getType() == String.class) {
-                        // Nothing to convert
-                        result.add(text);
+                    // Convert using the TypeConverter resolved at registration
+                    try {
+                        result[i] = omd.getConverter().convert(text);
                     }
-                    else {
-                        // Use .valueOf(String) to convert
-                        Class<?> paramType = omd.getType();
-                        // Primitives don't have .valueOf(String)
-                        Class<?> newType = primitiveWrappers.get(paramType);
-                        if (newType != null)
-                            paramType = newType;
-                        try {
-                            Method valueOf = paramType.getMethod("valueOf", String.class);
-                            Object value = valueOf.invoke(null, text);
-                            result.add(value);
-                        }
-                        catch (InvocationTargetException e) {
-                            // Unwrap, see if it's a NumberFormatException
-                            if (e.getCause() instanceof NumberFormatException) {
-                                // Complain
-                                throw new ParseException("Invalid number: %s", omd.getName());
-                            }
-                            else {
-                                // Re-throw
-                                throw e.getCause();
-                            }
-                        }
+                    catch (NumberFormatException e) {
+                        throw new ParseException("Invalid number: %s", omd.getName());
+                    }
+                    catch (IllegalArgumentException e) {
+                        throw new ParseException("Invalid value: %s", omd.getName());
                     }
                 }
                 else {
@@ -389,18 +238,18 @@ final class HandlerExecutor<T extends Plugin> {
                         }
                     }
                     
-                    result.add(null);
+                    result[i] = null;
                 }
             }
             else if (mp instanceof SessionParameter) {
                 SessionParameter sp = (SessionParameter)mp;
-                result.add(session.getValue(sp.getName(), sp.getType()));
+                result[i] = session.getValue(sp.getName(), sp.getType());
             }
             else {
                 throw new AssertionError("Unknown MethodParameter type");
             }
         }
-        return result.toArray();
+        return result;
     }
 
     /**
@@ -429,54 +278,47 @@ final class HandlerExecutor<T extends Plugin> {
         if (session == null)
             session = new CommandSession();
 
-        CommandMetaData cmd = commandMap.get(name);
+        CommandMetaData cmd = commandTrie.get(name);
         if (cmd == null)
             throw new ParseException("Unknown command: %s", name);
 
         // Check permissions
-        if (cmd.isRequireAll()) {
-            requireAllPermissions(sender, cmd.getPermissions());
-        }
-        else {
-            requireOnePermission(sender, cmd.isCheckNegations(), cmd.getPermissions());
-        }
+        requirePermissions(sender, cmd.getPermissionRequirement());
 
         // Save into chain
         invChain.addInvocation(label, cmd);
 
-        ParsedArgs pa = new ParsedArgs();
-        pa.parse(cmd, args);
-        if (!cmd.hasRest() && pa.getRest().length > 0)
-            throw new ParseException("Too many arguments");
-        Object[] methodArgs = buildMethodArgs(cmd, sender, pa, label, invChain, session, null);
-        Object nextHandler = null;
+        HandlerExecutor<T> he = null;
+        String subName = null;
+        ParsedArgs pa = ParsedArgs.acquire();
         try {
-            nextHandler = cmd.getMethod().invoke(cmd.getHandler(), methodArgs);
-        }
-        catch (InvocationTargetException e) {
-            // Unwrap exception, re-throw
-            throw e.getCause();
-        }
-
-        if (nextHandler != null) {
-            // Handle a sub-command
-            args = pa.getRest();
-            if (args.length >= 1) {
+            pa.parse(cmd, args);
+            if (!cmd.hasRest() && pa.getRestLength() > 0)
+                throw new ParseException("Too many arguments");
+            Object[] methodArgs = buildMethodArgs(cmd, sender, pa, label, invChain, session, null);
+            Object nextHandler = cmd.getInvoker().invoke(cmd.getHandler(), methodArgs);
+
+            if (nextHandler != null && pa.getRestLength() >= 1) {
+                // Handle a sub-command
                 // Check HandlerExecutor cache
-                HandlerExecutor<T> he = handlerExecutorFor(nextHandler);
+                he = handlerExecutorFor(nextHandler);
 
                 // Chain to next handler
-                String subName = args[0];
-                args = Arrays.copyOfRange(args, 1, args.length);
-
-                he.execute(sender, subName, subName, args, invChain, session);
+                subName = pa.getRestArgument(0);
+                args = pa.getRest(1);
             }
         }
+        finally {
+            pa.release();
+        }
+
+        if (subName != null)
+            he.execute(sender, subName, subName, args, invChain, session);
     }
 
     // Add the named CommandMetaData to an InvocationChain
     void fillInvocationChain(InvocationChain invChain, String label) {
-        CommandMetaData cmd = commandMap.get(label);
+        CommandMetaData cmd = commandTrie.get(label);
         if (cmd == null)
             throw new IllegalArgumentException("Unknown command: " + label);
         invChain.addInvocation(label, cmd);
@@ -484,17 +326,30 @@ final class HandlerExecutor<T extends Plugin> {
 
     // Retrieve cached HandlerExecutor for given handler object, creating
     // one if it doesn't exist
-    synchronized HandlerExecutor<T> handlerExecutorFor(Object handler) {
+    HandlerExecutor<T> handlerExecutorFor(Object handler) {
         // Check HandlerExecutor cache
         HandlerExecutor<T> he = subCommandMap.get(handler);
         if (he == null) {
-            // No HandlerExecutor yet, create a new one
-            he = new HandlerExecutor<T>(plugin, usageOptions, handler);
-            subCommandMap.put(handler, he);
+            // No HandlerExecutor yet, create a new one. Only binds if the
+            // handler's class has been seen before.
+            he = new HandlerExecutor<T>(plugin, usageOptions, handlerMetaDataCache, usageStringCache, handler);
+            HandlerExecutor<T> old = subCommandMap.putIfAbsent(handler, he);
+            if (old != null)
+                he = old;
         }
         return he;
     }
 
+    // Retrieve the (possibly cached) usage string for an InvocationChain
+    String getUsageString(InvocationChain invChain, UsageOptions usageOptions, boolean withDescription) {
+        return usageStringCache.getUsageString(invChain, usageOptions, withDescription);
+    }
+
+    // Discard cached usage strings
+    void clearUsageStrings() {
+        usageStringCache.clear();
+    }
+
     // Create a HelpBuilder associated with this HandlerExecutor
     HelpBuilder getHelpBuilder(InvocationChain rootInvocationChain, Set<String> possibleCommands) {
         return new HelpBuilder(this, rootInvocationChain, usageOptions, possibleCommands);
@@ -525,6 +380,12 @@ final class HandlerExecutor<T extends Plugin> {
      * @return list of possible completions
      */
     List<String> getTabCompletions(CommandSender sender, String name, String label, String[] args, InvocationChain invChain, CommandSession session, Map<String, TypeCompleter> typeCompleterRegistry) throws Throwable {
+        return getTabCompletions(commandTrie, sender, name, label, args, invChain, session, typeCompleterRegistry);
+    }
+
+    // Determine possible completions using the given commands. Commands
+    // from a @SubCommandHandler class are unbound and are never invoked.
+    private List<String> getTabCompletions(CommandTrie commands, CommandSender sender, String name, String label, String[] args, InvocationChain invChain, CommandSession session, Map<String, TypeCompleter> typeCompleterRegistry) throws Throwable {
         if (invChain == null)
             invChain = new InvocationChain();
         if (session == null)
@@ -543,123 +404,135 @@ final class HandlerExecutor<T extends Plugin> {
             argsNoQuery = args;
         }
 
-        CommandMetaData cmd = commandMap.get(name);
+        CommandMetaData cmd = commands.get(name);
         if (cmd == null)
             throw new ParseException("Unknown command: %s", name);
 
         // Check permissions
-        if (cmd.isRequireAll()) {
-            requireAllPermissions(sender, cmd.getPermissions());
-        }
-        else {
-            requireOnePermission(sender, cmd.isCheckNegations(), cmd.getPermissions());
-        }
+        requirePermissions(sender, cmd.getPermissionRequirement());
 
         // Save into chain
         invChain.addInvocation(label, cmd);
 
         // Tab completion on cmd.getFlagOptions() and cmd.getPositionalArguments()
-        ParsedArgs pa = new ParsedArgs();
-        OptionMetaData missingValue;
-        boolean consumedAll;
+        HandlerExecutor<T> he = null;
+        CommandTrie subCommands = null;
+        String subName = null;
+        ParsedArgs pa = ParsedArgs.acquire();
         try {
-            pa.parse(cmd, argsNoQuery);
-            missingValue = pa.getUnparsedArgument(); // possible because of nullable
-            consumedAll = pa.getRest().length == 0;
-        }
-        catch (UnknownFlagException e) {
-            // Tab-completion ain't gonna help
-            return Collections.emptyList();
-        }
-        catch (MissingValueException e) {
-            missingValue = e.getOptionMetaData();
-            consumedAll = true;
-        }
+            OptionMetaData missingValue;
+            boolean consumedAll;
+            try {
+                pa.parse(cmd, argsNoQuery);
+                missingValue = pa.getUnparsedArgument(); // possible because of nullable
+                consumedAll = pa.getRestLength() == 0;
+            }
+            catch (UnknownFlagException e) {
+                // Tab-completion ain't gonna help
+                return Collections.emptyList();
+            }
+            catch (MissingValueException e) {
+                missingValue = e.getOptionMetaData();
+                consumedAll = true;
+            }
 
-        // Is it the start of a flag?
-        if (consumedAll && !pa.isParsedPositional() && !OptionMetaData.isArgument(query)) {
-            List<String> source = new ArrayList<String>();
-            source.add("--"); // explicit end of flags
-            for (OptionMetaData omd : cmd.getFlagOptions()) {
-                boolean found = false;
-                for (String flag : omd.getNames()) {
-                    if (pa.getOptions().containsKey(flag)) {
-                        found = true;
-                        break;
+            // Is it the start of a flag?
+            if (consumedAll && !pa.isParsedPositional() && !OptionMetaData.isArgument(query)) {
+                List<String> source = new ArrayList<String>();
+                source.add("--"); // explicit end of flags
+                for (OptionMetaData omd : cmd.getFlagOptions()) {
+                    if (pa.isPresent(omd)) {
+                        // Skip this one (we don't support multiple flags)
+                        continue;
                     }
+                    source.addAll(Arrays.asList(omd.getNames()));
                 }
-                if (found) {
-                    // Skip this one (we don't support multiple flags)
-                    continue;
-                }
-                source.addAll(Arrays.asList(omd.getNames()));
+
+                List<String> result = new ArrayList<String>();
+                StringUtil.copyPartialMatches(query, source, result);
+                return result;
             }
 
-            List<String> result = new ArrayList<String>();
-            StringUtil.copyPartialMatches(query, source, result);
-            return result;
-        }
+            if (missingValue != null) {
+                // Use missing value's type to get candidates
+                List<String> result = new ArrayList<String>();
+                if (addCompletions(typeCompleterRegistry, missingValue, sender, query, result))
+                    result = new TruncatedCompletions(result);
+                return result;
+            }
 
-        if (missingValue != null) {
-            // Use missing value's type to get candidates
-            List<String> result = new ArrayList<String>();
-            addCompletions(typeCompleterRegistry, missingValue, sender, query, result);
-            return result;
-        }
+            // Check if sub-command
+            if (cmd.getMethod().getReturnType() != Void.TYPE) {
+                if (cmd.isSubCommandHandlerDeclared()) {
+                    HandlerMetaData hmd = getHandlerMetaData(cmd.getSubCommandHandlerClass());
+                    if (pa.getRestLength() == 0) {
+                        // Completing the sub-command name itself. The
+                        // handler class is declared, so there's no need to
+                        // invoke anything.
+                        return getSubCommandCompletions(sender, invChain, hmd, query);
+                    }
+                    else {
+                        // Walk to the declared handler class's commands
+                        subCommands = hmd.getCommandTrie();
+                    }
+                }
 
-        // Check if sub-command
-        if (cmd.getMethod().getReturnType() != Void.TYPE) {
-            // Sub-command, attempt to execute it. It better not have side-effects!
-            Set<String> possibleCommands = new HashSet<String>();
-            Object[] methodArgs = buildMethodArgs(cmd, sender, pa, label, invChain, session, possibleCommands);
-            Object nextHandler;
-            try {
-                nextHandler = cmd.getMethod().invoke(cmd.getHandler(), methodArgs);
+                if (subCommands == null && cmd.getHandler() == null) {
+                    // Unbound, nothing to invoke
+                    return Collections.emptyList();
+                }
             }
-            catch (InvocationTargetException e) {
-                throw e.getCause();
+
+            if (subCommands != null) {
+                // Chain to next
+                subName = pa.getRestArgument(0);
+                args = Arrays.copyOf(pa.getRest(1), pa.getRestLength()); // room for query
+                args[args.length - 1] = query; // stuff query argument back in
             }
-            
-            if (nextHandler != null) {
-                args = pa.getRest();
+            else if (cmd.getMethod().getReturnType() != Void.TYPE) {
+                // Sub-command, attempt to execute it. It better not have side-effects!
+                Set<String> possibleCommands = new HashSet<String>();
+                Object[] methodArgs = buildMethodArgs(cmd, sender, pa, label, invChain, session, possibleCommands);
+                Object nextHandler = cmd.getInvoker().invoke(cmd.getHandler(), methodArgs);
 
-                if (args.length >= 1) {
-                    HandlerExecutor<T> he = handlerExecutorFor(nextHandler);
+                if (nextHandler != null && pa.getRestLength() >= 1) {
+                    he = handlerExecutorFor(nextHandler);
 
                     // Chain to next
-                    String subName = args[0];
-                    args = Arrays.copyOfRange(args, 1, args.length + 1); // room for query
+                    subName = pa.getRestArgument(0);
+                    args = Arrays.copyOf(pa.getRest(1), pa.getRestLength()); // room for query
                     args[args.length - 1] = query; // stuff query argument back in
-                    return he.getTabCompletions(sender, subName, subName, args, invChain, session, typeCompleterRegistry);
+                }
+                else {
+                    // Relying on HelpBuilder to have filled out the blanks
+                    List<String> result = new ArrayList<String>();
+                    StringUtil.copyPartialMatches(query, possibleCommands, result);
+                    return result;
                 }
             }
-            
-            // Relying on HelpBuilder to have filled out the blanks
-            List<String> result = new ArrayList<String>();
-            StringUtil.copyPartialMatches(query, possibleCommands, result);
-            return result;
+        }
+        finally {
+            pa.release();
         }
 
+        if (subCommands != null)
+            return getTabCompletions(subCommands, sender, subName, subName, args, invChain, session, typeCompleterRegistry);
+        else if (subName != null)
+            return he.getTabCompletions(sender, subName, subName, args, invChain, session, typeCompleterRegistry);
+
         // Have a varargs completer?
-        if (cmd.getCompleter() != null) {
+        CompleterSpec completerSpec = cmd.getCompleterSpec();
+        if (completerSpec != null) {
             List<String> result = new ArrayList<String>();
 
             // Determine suitable TypeCompleter
-            TypeCompleter typeCompleter = null;
-            String arg = null;
-
-            String completerName = cmd.getCompleter();
-            // Split arguments, if present
-            String[] parts = completerName.split(":", 2);
-            if (parts.length == 2) {
-                completerName = parts[0];
-                arg = parts[1];
-            }
-            
-            typeCompleter = typeCompleterRegistry.get(completerName);
+            TypeCompleter typeCompleter = typeCompleterRegistry.get(completerSpec.getName());
             
             if (typeCompleter != null) {
-                result.addAll(typeCompleter.complete(String.class, arg, sender, query));
+                List<String> completions = typeCompleter.complete(String.class, completerSpec.getArg(), sender, query);
+                if (completions instanceof TruncatedCompletions)
+                    return new TruncatedCompletions(completions);
+                result.addAll(completions);
             }
             return result;
         }
@@ -668,25 +541,41 @@ final class HandlerExecutor<T extends Plugin> {
         return Collections.emptyList();
     }
 
-    private void addCompletions(Map<String, TypeCompleter> typeCompleterRegistry, OptionMetaData omd, CommandSender sender, String partial, List<String> destination) {
+    // Complete sub-command names (including aliases) from the sub-command
+    // handler's metadata, skipping any the sender can't execute along with
+    // the rest of the chain
+    private List<String> getSubCommandCompletions(CommandSender sender, InvocationChain invChain, HandlerMetaData hmd, String query) {
+        Map<PermissionRequirement, Boolean> permissionResults = new HashMap<PermissionRequirement, Boolean>();
+        List<String> result = new ArrayList<String>();
+        for (String subName : hmd.getCommandTrie().getPrefixMatches(query, new ArrayList<String>())) {
+            invChain.addInvocation(subName, hmd.getCommandTrie().get(subName));
+            try {
+                if (invChain.canBeExecutedBy(sender, permissionResults))
+                    result.add(subName);
+            }
+            finally {
+                invChain.pop();
+            }
+        }
+        return result;
+    }
+
+    // Returns true if the TypeCompleter cut its results off at some limit
+    private boolean addCompletions(Map<String, TypeCompleter> typeCompleterRegistry, OptionMetaData omd, CommandSender sender, String partial, List<String> destination) {
         // Determine suitable TypeCompleter
         TypeCompleter typeCompleter = null;
         String arg = null;
 
-        String completerName = omd.getCompleter();
-        if (completerName != null) {
-            // Split arguments, if present
-            String[] parts = completerName.split(":", 2);
-            if (parts.length == 2) {
-                completerName = parts[0];
-                arg = parts[1];
-            }
-        
-            typeCompleter = typeCompleterRegistry.get(completerName);
+        CompleterSpec completerSpec = omd.getCompleterSpec();
+        if (completerSpec != null) {
+            typeCompleter = typeCompleterRegistry.get(completerSpec.getName());
+            arg = completerSpec.getArg();
         }
         
         if (typeCompleter != null) {
-            destination.addAll(typeCompleter.complete(omd.getType(), arg, sender, partial));
+            List<String> completions = typeCompleter.complete(omd.getType(), arg, sender, partial);
+            destination.addAll(completions);
+            return completions instanceof TruncatedCompletions;
         }
         else {
             // Use values based on type.
@@ -701,6 +590,7 @@ final class HandlerExecutor<T extends Plugin> {
                 // Drop a hint
                 destination.add(String.format("<%s>", omd.isArgument() ? omd.getName() : omd.getValueName()));
             }
+            return false;
         }
     }
 
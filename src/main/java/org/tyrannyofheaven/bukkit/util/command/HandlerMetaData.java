@@ -0,0 +1,115 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command metadata for a handler class. The contained CommandMetaData are
+ * not bound to any handler instance.
+ * 
+ * @author asaddi
+ */
+final class HandlerMetaData {
+
+    private final Class<?> handlerClass;
+
+    private final Class<?> pluginClass;
+
+    private final Map<String, CommandMetaData> commandMap;
+
+    private final CommandTrie commandTrie = new CommandTrie();
+
+    private final List<String> commandList;
+
+    /**
+     * Create a HandlerMetaData.
+     * 
+     * @param handlerClass the handler class
+     * @param pluginClass the plugin class the metadata was created for
+     * @param commandMap unbound CommandMetaData keyed by command name and alias
+     * @param commandList unaliased command names
+     */
+    HandlerMetaData(Class<?> handlerClass, Class<?> pluginClass, Map<String, CommandMetaData> commandMap, List<String> commandList) {
+        if (handlerClass == null)
+            throw new IllegalArgumentException("handlerClass cannot be null");
+        if (pluginClass == null)
+            throw new IllegalArgumentException("pluginClass cannot be null");
+        if (commandMap == null)
+            throw new IllegalArgumentException("commandMap cannot be null");
+        if (commandList == null)
+            throw new IllegalArgumentException("commandList cannot be null");
+
+        this.handlerClass = handlerClass;
+        this.pluginClass = pluginClass;
+        this.commandMap = Collections.unmodifiableMap(new LinkedHashMap<String, CommandMetaData>(commandMap));
+        for (Map.Entry<String, CommandMetaData> me : this.commandMap.entrySet()) {
+            commandTrie.put(me.getKey(), me.getValue());
+        }
+        this.commandList = Collections.unmodifiableList(commandList);
+    }
+
+    /**
+     * Returns the handler class.
+     * 
+     * @return the handler class
+     */
+    Class<?> getHandlerClass() {
+        return handlerClass;
+    }
+
+    /**
+     * Returns the plugin class the metadata was created for. Parameters
+     * assignable from this class receive the plugin.
+     * 
+     * @return the plugin class
+     */
+    Class<?> getPluginClass() {
+        return pluginClass;
+    }
+
+    /**
+     * Returns the unbound CommandMetaData keyed by command name and alias.
+     * Aliases share the same CommandMetaData instance.
+     * 
+     * @return map of command names to CommandMetaData
+     */
+    Map<String, CommandMetaData> getCommandMap() {
+        return commandMap;
+    }
+
+    /**
+     * Returns the unbound CommandMetaData indexed by command name and alias.
+     * 
+     * @return the CommandTrie
+     */
+    CommandTrie getCommandTrie() {
+        return commandTrie;
+    }
+
+    /**
+     * Returns the unaliased command names.
+     * 
+     * @return list of unaliased command names
+     */
+    List<String> getCommandList() {
+        return commandList;
+    }
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bukkit.Server;
+import org.bukkit.command.CommandSender;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Shared registry of {@link HandlerMetaData}. Each handler class is scanned
+ * for annotations once and the result reused by every HandlerExecutor (and
+ * so every ToHCommandExecutor) that binds an instance of it.
+ * 
+ * <p>Metadata is kept per handler class and plugin class. Keys and metadata
+ * are weakly held. HandlerExecutors keep strong
+ * references to the metadata they use, so an entry lives as long as some
+ * executor needs it and the handler's class loader may be collected once a
+ * plugin is unloaded.
+ * 
+ * @author asaddi
+ */
+final class HandlerMetaDataRegistry {
+
+    // Handler class -> plugin class -> metadata. Metadata depends on the
+    // plugin class (it decides which parameters receive the plugin), so each
+    // pair is scanned once.
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, HandlerMetaData>> registry = new MapMaker().weakKeys().makeMap();
+
+    private HandlerMetaDataRegistry() {
+        throw new AssertionError("Don't instantiate me!");
+    }
+
+    /**
+     * Retrieve metadata for the given handler class, scanning it if
+     * necessary.
+     * 
+     * @param handlerClass the handler class
+     * @param pluginClass the class of the plugin the handler will be bound
+     *   for. Determines which parameters receive the plugin.
+     * @return the HandlerMetaData
+     */
+    static HandlerMetaData getHandlerMetaData(Class<?> handlerClass, Class<?> pluginClass) {
+        if (handlerClass == null)
+            throw new IllegalArgumentException("handlerClass cannot be null");
+        if (pluginClass == null)
+            throw new IllegalArgumentException("pluginClass cannot be null");
+
+        ConcurrentMap<Class<?>, HandlerMetaData> byPluginClass = registry.get(handlerClass);
+        if (byPluginClass == null) {
+            byPluginClass = new MapMaker().weakKeys().weakValues().makeMap();
+            ConcurrentMap<Class<?>, HandlerMetaData> old = registry.putIfAbsent(handlerClass, byPluginClass);
+            if (old != null)
+                byPluginClass = old;
+        }
+
+        HandlerMetaData hmd = byPluginClass.get(pluginClass);
+        if (hmd == null) {
+            hmd = scanHandlerClass(handlerClass, pluginClass);
+            HandlerMetaData old = byPluginClass.putIfAbsent(pluginClass, hmd);
+            if (old != null)
+                hmd = old; // lost the race, doesn't matter which one we use
+        }
+        return hmd;
+    }
+
+    // Analyze a handler class and create the appropriate (unbound) metadata
+    // classes.
+    private static HandlerMetaData scanHandlerClass(Class<?> clazz, Class<?> pluginClass) {
+        Map<String, CommandMetaData> commandMap = new HashMap<String, CommandMetaData>();
+        List<String> commandList = new ArrayList<String>();
+
+        // Scan each method
+        for (Method method : clazz.getMethods()) {
+            // Handle @Require if present
+            Require require = method.getAnnotation(Require.class);
+            String[] permissions = new String[0];
+            boolean requireAll = false;
+            boolean checkNegations = false;
+            if (require != null) {
+                permissions = require.value();
+                requireAll = require.all();
+                checkNegations = require.checkNegations();
+            }
+
+            // @Command or @SubCommand present?
+            Command command = method.getAnnotation(Command.class);
+
+            if (command != null) {
+                // Handle @Command
+                List<MethodParameter> options = new ArrayList<MethodParameter>();
+
+                boolean hasLabel = false;
+                boolean hasRest = false; // There can be only one!
+
+                // Scan each parameter. Note both of these return fresh
+                // copies on each call.
+                Class<?>[] paramTypes = method.getParameterTypes();
+                Annotation[][] paramAnns = method.getParameterAnnotations();
+                for (int i = 0; i < paramTypes.length; i++) {
+                    Class<?> paramType = paramTypes[i];
+                    Annotation[] anns = paramAnns[i];
+
+                    MethodParameter ma = null;
+                    
+                    // Special parameter type?
+                    if (paramType.isAssignableFrom(Server.class)) {
+                        ma = new SpecialParameter(SpecialParameter.Type.SERVER);
+                    }
+                    else if (paramType.isAssignableFrom(pluginClass)) {
+                        ma = new SpecialParameter(SpecialParameter.Type.PLUGIN);
+                    }
+                    else if (paramType.isAssignableFrom(CommandSender.class)) {
+                        ma = new SpecialParameter(SpecialParameter.Type.COMMAND_SENDER);
+                    }
+                    else if (paramType.isAssignableFrom(HelpBuilder.class)) {
+                        ma = new SpecialParameter(SpecialParameter.Type.USAGE_BUILDER);
+                    }
+                    else if (paramType.isAssignableFrom(CommandSession.class)) {
+                        ma = new SpecialParameter(SpecialParameter.Type.SESSION);
+                    }
+                    else if (paramType.isArray() && paramType.getComponentType() == String.class) {
+                        if (hasRest) {
+                            throw new CommandException("Method already has a String[] parameter (%s#%s)", clazz.getName(), method.getName());
+                        }
+
+                        ma = new SpecialParameter(SpecialParameter.Type.REST);
+                        hasRest = true;
+                    }
+                    else {
+                        // Grab the @Option and @Session annotations
+                        Option optAnn = null;
+                        Session sessAnn = null;
+                        for (Annotation ann : anns) {
+                            if (ann instanceof Option) {
+                                optAnn = (Option)ann;
+                            }
+                            else if (ann instanceof Session) {
+                                sessAnn = (Session)ann;
+                            }
+                        }
+
+                        // Both must not be present
+                        if (optAnn != null && sessAnn != null) {
+                            throw new CommandException("Parameter cannot have both @Option and @Session annotations (%s#%s)", clazz.getName(), method.getName());
+                        }
+                        else if (sessAnn != null) {
+                            // @Session
+                            ma = new SessionParameter(sessAnn.value(), paramType);
+                        }
+                        else if (optAnn != null) {
+                            // @Option
+                            
+                            // Supported parameter type?
+                            TypeConverter<?> converter = TypeConverters.getTypeConverter(paramType);
+                            if (converter == null) {
+                                throw new CommandException("Unsupported parameter type: %s (%s#%s)", paramType, clazz.getName(), method.getName());
+                            }
+
+                            ma = new OptionMetaData(optAnn.value(), optAnn.valueName(), paramType, optAnn.optional(), optAnn.nullable(), optAnn.completer(), converter, i);
+                        }
+                        else {
+                            // Not annotated at all
+
+                            // Is it a String parameter?
+                            if (paramType == String.class) {
+                                if (hasLabel) {
+                                    throw new CommandException("Method already has an unannotated String parameter (%s#%s)", clazz.getName(), method.getName());
+                                }
+                                
+                                ma = new SpecialParameter(SpecialParameter.Type.LABEL);
+                                hasLabel = true;
+                            }
+                            else
+                                throw new CommandException("Non-special parameters must be annotated with @Option (%s#%s)", clazz.getName(), method.getName());
+                        }
+                    }
+                    
+                    options.add(ma);
+                }
+
+                // Some validation of option ordering
+                // Flags (-f, --flag) can appear anywhere.
+                // Optional arguments must follow positional ones.
+                // Nullable arguments must follow non-nullable ones.
+                List<MethodParameter> reversed = new ArrayList<MethodParameter>(options);
+                Collections.reverse(reversed); // easier to do this in reverse
+                boolean positional = false; // true if positional arguments have started
+                boolean nonNullable = false; // true if non-nullable arguments have started
+                for (MethodParameter ma : reversed) {
+                    if (!(ma instanceof OptionMetaData)) continue;
+                    OptionMetaData omd = (OptionMetaData)ma;
+                    if (omd.isArgument()) {
+                        if (!omd.isOptional()) {
+                            positional = true;
+                        }
+                        else if (positional) {
+                            throw new CommandException("Optional parameters must follow all non-optional ones (%s#%s)", clazz.getName(), method.getName());
+                        }
+                        
+                        if (!omd.isNullable()) {
+                            nonNullable = true;
+                        }
+                        else if (nonNullable) {
+                            throw new CommandException("Nullable parameters must follow all non-nullable ones (%s#%s)", clazz.getName(), method.getName());
+                        }
+                    }
+                }
+
+                // Validate @SubCommandHandler, if present
+                SubCommandHandler subCommandHandler = method.getAnnotation(SubCommandHandler.class);
+                if (subCommandHandler != null) {
+                    if (method.getReturnType() == Void.TYPE) {
+                        throw new CommandException("@SubCommandHandler on method that does not return a handler (%s#%s)", clazz.getName(), method.getName());
+                    }
+                    else if (!method.getReturnType().isAssignableFrom(subCommandHandler.value())) {
+                        throw new CommandException("@SubCommandHandler class %s is not assignable to return type (%s#%s)", subCommandHandler.value().getName(), clazz.getName(), method.getName());
+                    }
+                }
+
+                CommandMetaData cmd = new CommandMetaData(null, method, options, permissions, requireAll, checkNegations, command.description(), hasRest, hasRest ? command.varargs() : null, hasRest ? command.completer() : null);
+                for (String commandName : command.value()) {
+                    if (commandMap.put(commandName, cmd) != null) {
+                        throw new CommandException("Duplicate command: %s (%s#%s)", commandName, clazz.getName(), method.getName());
+                    }
+                }
+                
+                // Track unaliased name for easy registration
+                // Dupes would have been handled above
+                commandList.add(command.value()[0]);
+            }
+        }
+        return new HandlerMetaData(clazz, pluginClass, commandMap, commandList);
+    }
+
+}
@@ -18,10 +18,13 @@ package org.tyrannyofheaven.bukkit.util.command;
 import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.bukkit.command.CommandSender;
+import org.tyrannyofheaven.bukkit.util.permissions.PermissionRequirement;
 
 /**
  * Automatically generates a help page for a sub-command.
@@ -46,6 +49,10 @@ public class HelpBuilder {
 
     private final Set<String> possibleCommands;
 
+    // Commands tend to share requirements (and always share the root chain's),
+    // so each distinct one is only checked once for the sender
+    private final Map<PermissionRequirement, Boolean> permissionResults = new HashMap<PermissionRequirement, Boolean>();
+
     HelpBuilder(HandlerExecutor<?> handlerExecutor, InvocationChain rootInvocationChain, UsageOptions usageOptions, Set<String> possibleCommands) {
         if (handlerExecutor == null)
             throw new IllegalArgumentException("handlerExecutor cannot be null");
@@ -138,8 +145,8 @@ public class HelpBuilder {
         invChain.pop();
         // Fill with sibling invocation
         handlerExecutor.fillInvocationChain(invChain, command);
-        if (!usePermissions || invChain.canBeExecutedBy(getCommandSender())) {
-            outputLines.add(invChain.getUsageString(usageOptions, true));
+        if (!usePermissions || invChain.canBeExecutedBy(getCommandSender(), permissionResults)) {
+            outputLines.add(handlerExecutor.getUsageString(invChain, usageOptions, true));
         }
         return this;
     }
@@ -174,11 +181,11 @@ public class HelpBuilder {
         HandlerExecutor<?> he = handlerExecutor.handlerExecutorFor(handler);
         InvocationChain invChain = rootInvocationChain.copy();
         he.fillInvocationChain(invChain, command);
-        if (!usePermissions || invChain.canBeExecutedBy(getCommandSender())) {
+        if (!usePermissions || invChain.canBeExecutedBy(getCommandSender(), permissionResults)) {
             if (possibleCommands != null)
                 possibleCommands.add(command);
             else
-                outputLines.add(invChain.getUsageString(usageOptions, true));
+                outputLines.add(handlerExecutor.getUsageString(invChain, usageOptions, true));
         }
         return this;
     }
@@ -223,9 +230,7 @@ public class HelpBuilder {
      */
     public void show() {
         if (possibleCommands == null) {
-            for (String line : outputLines) {
-                getCommandSender().sendMessage(line);
-            }
+            getCommandSender().sendMessage(getLines());
         }
     }
 
@@ -17,32 +17,46 @@ package org.tyrannyofheaven.bukkit.util.command;
 
 import static org.tyrannyofheaven.bukkit.util.permissions.PermissionUtils.hasPermissions;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.bukkit.permissions.Permissible;
+import org.tyrannyofheaven.bukkit.util.permissions.PermissionRequirement;
 
 /**
  * Holds a chain of CommandInvocations. Used for generating the usage string.
  * 
+ * <p>The invocations themselves form an immutable, parent-linked list shared
+ * by copies, so adding, popping and copying are all constant-time.
+ * 
  * @author asaddi
  */
 final class InvocationChain {
 
-    private final List<CommandInvocation> chain;
+    private Node tail;
 
-    private InvocationChain(List<CommandInvocation> chain) {
-        this.chain = chain;
+    private InvocationChain(Node tail) {
+        this.tail = tail;
     }
 
     InvocationChain() {
-        this(new LinkedList<CommandInvocation>());
+        this(null);
     }
 
     // Adds a new invocation to the chain
     void addInvocation(String label, CommandMetaData commandMetaData) {
-        chain.add(new CommandInvocation(label, commandMetaData));
+        tail = new Node(tail, new CommandInvocation(label, commandMetaData));
+    }
+
+    // Returns the invocations, first to last
+    private CommandInvocation[] toArray() {
+        CommandInvocation[] result = new CommandInvocation[tail == null ? 0 : tail.size];
+        for (Node n = tail; n != null; n = n.parent) {
+            result[n.size - 1] = n.invocation;
+        }
+        return result;
     }
 
     // Generate a usage string
@@ -56,8 +70,9 @@ final class InvocationChain {
         
         StringBuilder usage = new StringBuilder();
         usage.append(usageOptions.getPreamble());
-        for (Iterator<CommandInvocation> i = chain.iterator(); i.hasNext();) {
-            CommandInvocation ci = i.next();
+        CommandInvocation[] chain = toArray();
+        for (int i = 0; i < chain.length; i++) {
+            CommandInvocation ci = chain[i];
             if (first) {
                 usage.append('/');
                 first = false;
@@ -103,14 +118,14 @@ final class InvocationChain {
                 usage.append(usageOptions.getVarargsEnd());
             }
 
-            if (i.hasNext())
+            if (i < chain.length - 1)
                 usage.append(' ');
         }
 
         // Attach description
-        if (withDescription && !chain.isEmpty()) {
+        if (withDescription && tail != null) {
             // Pull out last CommandMetaData
-            CommandMetaData cmd = chain.get(chain.size() - 1).getCommandMetaData();
+            CommandMetaData cmd = tail.invocation.getCommandMetaData();
             if (cmd.getDescription() != null) {
                 usage.append(usageOptions.getDescriptionDelimiter());
                 usage.append(cmd.getDescription());
@@ -122,10 +137,39 @@ final class InvocationChain {
         return usage.toString();
     }
 
+    // Returns what the usage string depends on: the label and command method
+    // of each invocation. Bound copies of a command share the method.
+    List<Object> getShape() {
+        CommandInvocation[] chain = toArray();
+        List<Object> shape = new ArrayList<Object>(chain.length * 2);
+        for (CommandInvocation ci : chain) {
+            shape.add(ci.getLabel());
+            shape.add(ci.getCommandMetaData().getMethod());
+        }
+        return shape;
+    }
+
     // Tests whether the given permissible can execute this entire chain
     boolean canBeExecutedBy(Permissible permissible) {
-        for (CommandInvocation ci : chain) {
-            if (!hasPermissions(permissible, ci.getCommandMetaData().isRequireAll(), ci.getCommandMetaData().isCheckNegations(), ci.getCommandMetaData().getPermissions()))
+        return canBeExecutedBy(permissible, null);
+    }
+
+    // Tests whether the given permissible can execute this entire chain.
+    // Results are memoized by PermissionRequirement, if results is
+    // non-null. It must only ever be used with the same permissible.
+    boolean canBeExecutedBy(Permissible permissible, Map<PermissionRequirement, Boolean> results) {
+        for (Node n = tail; n != null; n = n.parent) {
+            PermissionRequirement requirement = n.invocation.getCommandMetaData().getPermissionRequirement();
+            if (requirement.isEmpty())
+                continue;
+
+            Boolean result = results == null ? null : results.get(requirement);
+            if (result == null) {
+                result = hasPermissions(permissible, requirement);
+                if (results != null)
+                    results.put(requirement, result);
+            }
+            if (!result)
                 return false;
         }
         return true;
@@ -133,14 +177,30 @@ final class InvocationChain {
 
     // Returns a copy of this chain
     InvocationChain copy() {
-        // Feh to clone()
-        return new InvocationChain(new LinkedList<CommandInvocation>(chain));
+        // Invocations are shared
+        return new InvocationChain(tail);
     }
 
     void pop() {
-        if (chain.isEmpty())
+        if (tail == null)
             throw new IllegalStateException("InvocationChain is empty");
-        chain.remove(chain.size() - 1);
+        tail = tail.parent;
+    }
+
+    private static final class Node {
+
+        private final Node parent;
+
+        private final CommandInvocation invocation;
+
+        private final int size;
+
+        private Node(Node parent, CommandInvocation invocation) {
+            this.parent = parent;
+            this.invocation = invocation;
+            this.size = parent == null ? 1 : parent.size + 1;
+        }
+
     }
 
 }
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates CommandInvokers. Where possible, a tiny class is generated that
+ * calls the handler method directly, avoiding Method.invoke() and its
+ * argument checks and exception wrapping. Otherwise, falls back to
+ * {@link ReflectiveCommandInvoker}.
+ *
+ * @author asaddi
+ */
+final class InvokerGenerator {
+
+    // Class file version 49 (Java 5) so no StackMapTable is needed
+    private static final int CLASS_FILE_VERSION = 49;
+
+    private static final String INVOKER_INTERNAL_NAME = internalName(CommandInvoker.class);
+
+    private static final String INVOKE_DESCRIPTOR = "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;";
+
+    private static final Map<Class<?>, Class<?>> primitiveWrappers;
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    static {
+        Map<Class<?>, Class<?>> wrappers = new HashMap<Class<?>, Class<?>>();
+        wrappers.put(Boolean.TYPE, Boolean.class);
+        wrappers.put(Byte.TYPE, Byte.class);
+        wrappers.put(Character.TYPE, Character.class);
+        wrappers.put(Short.TYPE, Short.class);
+        wrappers.put(Integer.TYPE, Integer.class);
+        wrappers.put(Long.TYPE, Long.class);
+        wrappers.put(Float.TYPE, Float.class);
+        wrappers.put(Double.TYPE, Double.class);
+        primitiveWrappers = Collections.unmodifiableMap(wrappers);
+    }
+
+    private InvokerGenerator() {
+        throw new AssertionError("Don't instantiate me!");
+    }
+
+    /**
+     * Create a CommandInvoker for the given method, generating one if
+     * possible.
+     *
+     * @param method the handler method
+     * @return the CommandInvoker
+     */
+    static CommandInvoker createInvoker(Method method) {
+        if (method == null)
+            throw new IllegalArgumentException("method cannot be null");
+
+        if (canGenerate(method)) {
+            try {
+                return generateInvoker(method);
+            }
+            catch (Exception e) {
+                // Fall back to reflection
+            }
+            catch (LinkageError e) {
+                // Fall back to reflection
+            }
+        }
+        return new ReflectiveCommandInvoker(method);
+    }
+
+    // Whether or not generated code can access everything it needs to
+    private static boolean canGenerate(Method method) {
+        Class<?> owner = method.getDeclaringClass();
+        if (owner.isInterface() || owner.getClassLoader() == null)
+            return false;
+        if (!Modifier.isPublic(method.getModifiers()) || !isPublic(owner))
+            return false;
+        for (Class<?> paramType : method.getParameterTypes()) {
+            if (!isPublic(paramType))
+                return false;
+        }
+        return true;
+    }
+
+    // Whether a type is accessible from another package (and ClassLoader)
+    private static boolean isPublic(Class<?> clazz) {
+        while (clazz.isArray())
+            clazz = clazz.getComponentType();
+        if (clazz.isPrimitive())
+            return true;
+        // Nested classes must be reachable through each enclosing class
+        for (Class<?> c = clazz; c != null; c = c.getDeclaringClass()) {
+            if (!Modifier.isPublic(c.getModifiers()))
+                return false;
+        }
+        return true;
+    }
+
+    private static CommandInvoker generateInvoker(Method method) throws Exception {
+        Class<?> owner = method.getDeclaringClass();
+        String className = String.format("%s$$Invoker$%s$%d", owner.getName(), method.getName(), counter.incrementAndGet());
+
+        byte[] classFile = generateClassFile(className, method);
+
+        InvokerClassLoader loader = new InvokerClassLoader(owner.getClassLoader());
+        Class<?> clazz = loader.define(className, classFile);
+        return (CommandInvoker)clazz.newInstance();
+    }
+
+    // Generate a class equivalent to:
+    //
+    // public final class Owner$$Invoker$name$N implements CommandInvoker {
+    //     public Object invoke(Object handler, Object[] args) {
+    //         return ((Owner)handler).name((T0)args[0], ((Integer)args[1]).intValue(), ...);
+    //     }
+    // }
+    private static byte[] generateClassFile(String className, Method method) throws IOException {
+        ConstantPool cp = new ConstantPool();
+
+        int thisClass = cp.classRef(className.replace('.', '/'));
+        int superClass = cp.classRef("java/lang/Object");
+        int invokerInterface = cp.classRef(INVOKER_INTERNAL_NAME);
+        int codeName = cp.utf8("Code");
+
+        // Constructor
+        int initName = cp.utf8("<init>");
+        int initDescriptor = cp.utf8("()V");
+        Code init = new Code();
+        init.op(0x2a); // aload_0
+        init.op(0xb7, cp.methodRef("java/lang/Object", "<init>", "()V")); // invokespecial
+        init.op(0xb1); // return
+        init.maxStack = 1;
+        init.maxLocals = 1;
+
+        // invoke()
+        int invokeName = cp.utf8("invoke");
+        int invokeDescriptor = cp.utf8(INVOKE_DESCRIPTOR);
+        Code invoke = generateInvokeCode(cp, method);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xcafebabe);
+        out.writeShort(0); // minor
+        out.writeShort(CLASS_FILE_VERSION);
+        cp.writeTo(out);
+        out.writeShort(Modifier.PUBLIC | Modifier.FINAL | 0x0020); // ACC_SUPER
+        out.writeShort(thisClass);
+        out.writeShort(superClass);
+        out.writeShort(1); // interfaces
+        out.writeShort(invokerInterface);
+        out.writeShort(0); // fields
+        out.writeShort(2); // methods
+        writeMethod(out, initName, initDescriptor, codeName, init);
+        writeMethod(out, invokeName, invokeDescriptor, codeName, invoke);
+        out.writeShort(0); // class attributes
+        out.flush();
+
+        return bytes.toByteArray();
+    }
+
+    private static Code generateInvokeCode(ConstantPool cp, Method method) throws IOException {
+        Class<?> owner = method.getDeclaringClass();
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+
+        Code code = new Code();
+        int depth = 0;
+
+        if (!isStatic) {
+            code.op(0x2b); // aload_1
+            code.op(0xc0, cp.classRef(internalName(owner))); // checkcast
+            depth++;
+        }
+        code.maxStack = depth;
+
+        Class<?>[] paramTypes = method.getParameterTypes();
+        for (int i = 0; i < paramTypes.length; i++) {
+            Class<?> paramType = paramTypes[i];
+
+            code.op(0x2c); // aload_2
+            code.pushInt(i);
+            code.op(0x32); // aaload
+            code.maxStack = Math.max(code.maxStack, depth + 2);
+
+            if (paramType.isPrimitive()) {
+                // Unbox
+                Class<?> wrapper = primitiveWrappers.get(paramType);
+                code.op(0xc0, cp.classRef(internalName(wrapper))); // checkcast
+                code.op(0xb6, cp.methodRef(internalName(wrapper), paramType.getName() + "Value", "()" + descriptor(paramType))); // invokevirtual
+                depth += slots(paramType);
+            }
+            else {
+                if (paramType != Object.class)
+                    code.op(0xc0, cp.classRef(internalName(paramType))); // checkcast
+                depth++;
+            }
+            code.maxStack = Math.max(code.maxStack, depth);
+        }
+
+        int methodRef = cp.methodRef(internalName(owner), method.getName(), methodDescriptor(method));
+        code.op(isStatic ? 0xb8 : 0xb6, methodRef); // invokestatic/invokevirtual
+
+        Class<?> returnType = method.getReturnType();
+        if (returnType == Void.TYPE) {
+            code.op(0x01); // aconst_null
+        }
+        else if (returnType.isPrimitive()) {
+            // Box
+            Class<?> wrapper = primitiveWrappers.get(returnType);
+            code.op(0xb8, cp.methodRef(internalName(wrapper), "valueOf", "(" + descriptor(returnType) + ")" + descriptor(wrapper))); // invokestatic
+        }
+        code.op(0xb0); // areturn
+        code.maxStack = Math.max(code.maxStack, Math.max(slots(returnType), 1));
+        code.maxLocals = 3;
+
+        return code;
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName, Code code) throws IOException {
+        out.writeShort(Modifier.PUBLIC);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1); // attributes
+        out.writeShort(codeName);
+        out.writeInt(12 + code.size());
+        out.writeShort(code.maxStack);
+        out.writeShort(code.maxLocals);
+        out.writeInt(code.size());
+        code.writeTo(out);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+    }
+
+    private static String internalName(Class<?> clazz) {
+        // Also correct for arrays, e.g. [Ljava/lang/String;
+        return clazz.getName().replace('.', '/');
+    }
+
+    private static String descriptor(Class<?> clazz) {
+        if (clazz == Void.TYPE) return "V";
+        else if (clazz == Boolean.TYPE) return "Z";
+        else if (clazz == Byte.TYPE) return "B";
+        else if (clazz == Character.TYPE) return "C";
+        else if (clazz == Short.TYPE) return "S";
+        else if (clazz == Integer.TYPE) return "I";
+        else if (clazz == Long.TYPE) return "J";
+        else if (clazz == Float.TYPE) return "F";
+        else if (clazz == Double.TYPE) return "D";
+        else if (clazz.isArray()) return internalName(clazz);
+        else return "L" + internalName(clazz) + ";";
+    }
+
+    private static String methodDescriptor(Method method) {
+        StringBuilder sb = new StringBuilder();
+        sb.append('(');
+        for (Class<?> paramType : method.getParameterTypes())
+            sb.append(descriptor(paramType));
+        sb.append(')');
+        sb.append(descriptor(method.getReturnType()));
+        return sb.toString();
+    }
+
+    // Number of operand stack slots a value of the given type takes
+    private static int slots(Class<?> clazz) {
+        if (clazz == Void.TYPE) return 0;
+        else if (clazz == Long.TYPE || clazz == Double.TYPE) return 2;
+        else return 1;
+    }
+
+    // Bytecode for a single method
+    private static class Code {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        int maxStack;
+
+        int maxLocals;
+
+        void op(int opcode) {
+            bytes.write(opcode);
+        }
+
+        void op(int opcode, int index) {
+            bytes.write(opcode);
+            bytes.write(index >> 8);
+            bytes.write(index);
+        }
+
+        void pushInt(int value) {
+            if (value <= 5) {
+                op(0x03 + value); // iconst_<n>
+            }
+            else if (value <= Byte.MAX_VALUE) {
+                op(0x10); // bipush
+                op(value);
+            }
+            else {
+                op(0x11, value); // sipush
+            }
+        }
+
+        int size() {
+            return bytes.size();
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            bytes.writeTo(out);
+        }
+
+    }
+
+    // Constant pool builder. Entries are de-duplicated.
+    private static class ConstantPool {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        private final Map<String, Integer> entries = new HashMap<String, Integer>();
+
+        private int count = 1; // Index 0 is unused
+
+        int utf8(String value) throws IOException {
+            String key = "U" + value;
+            Integer index = entries.get(key);
+            if (index == null) {
+                out.writeByte(1); // CONSTANT_Utf8
+                out.writeUTF(value);
+                index = add(key);
+            }
+            return index;
+        }
+
+        int classRef(String internalName) throws IOException {
+            String key = "C" + internalName;
+            Integer index = entries.get(key);
+            if (index == null) {
+                int name = utf8(internalName);
+                out.writeByte(7); // CONSTANT_Class
+                out.writeShort(name);
+                index = add(key);
+            }
+            return index;
+        }
+
+        int methodRef(String owner, String name, String descriptor) throws IOException {
+            String key = "M" + owner + "." + name + descriptor;
+            Integer index = entries.get(key);
+            if (index == null) {
+                int ownerIndex = classRef(owner);
+                int nameAndType = nameAndType(name, descriptor);
+                out.writeByte(10); // CONSTANT_Methodref
+                out.writeShort(ownerIndex);
+                out.writeShort(nameAndType);
+                index = add(key);
+            }
+            return index;
+        }
+
+        private int nameAndType(String name, String descriptor) throws IOException {
+            String key = "N" + name + ":" + descriptor;
+            Integer index = entries.get(key);
+            if (index == null) {
+                int nameIndex = utf8(name);
+                int descriptorIndex = utf8(descriptor);
+                out.writeByte(12); // CONSTANT_NameAndType
+                out.writeShort(nameIndex);
+                out.writeShort(descriptorIndex);
+                index = add(key);
+            }
+            return index;
+        }
+
+        private int add(String key) {
+            int index = count++;
+            entries.put(key, index);
+            return index;
+        }
+
+        void writeTo(DataOutputStream dest) throws IOException {
+            out.flush();
+            dest.writeShort(count);
+            bytes.writeTo(dest);
+        }
+
+    }
+
+    // Defines generated invokers. Child of the handler's ClassLoader, but
+    // always resolves CommandInvoker to our copy.
+    private static class InvokerClassLoader extends ClassLoader {
+
+        InvokerClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (CommandInvoker.class.getName().equals(name))
+                return CommandInvoker.class;
+            return super.loadClass(name, resolve);
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+
+    }
+
+}
@@ -40,14 +40,22 @@ final class OptionMetaData implements MethodParameter {
     
     private final String completer;
 
+    private final CompleterSpec completerSpec;
+
+    private final TypeConverter<?> converter;
+
+    private final int parameterIndex;
+
     /**
      * Create an OptionMetaData.
      * 
      * @param names the name of the mapping along with any aliases
      * @param type the parameter type
      * @param optional true if optional
+     * @param converter the TypeConverter for the parameter type
+     * @param parameterIndex the index of the method parameter
      */
-    public OptionMetaData(String[] names, String valueName, Class<?> type, boolean optional, boolean nullable, String completer) {
+    public OptionMetaData(String[] names, String valueName, Class<?> type, boolean optional, boolean nullable, String completer, TypeConverter<?> converter, int parameterIndex) {
         if (names == null || names.length == 0)
             throw new IllegalArgumentException("names must be given");
         if (!hasText(valueName))
@@ -56,6 +64,10 @@ final class OptionMetaData implements MethodParameter {
             throw new IllegalArgumentException("type cannot be null");
         if (!hasText(completer))
             completer = null;
+        if (converter == null)
+            throw new IllegalArgumentException("converter cannot be null");
+        if (parameterIndex < 0)
+            throw new IllegalArgumentException("parameterIndex must be non-negative");
 
         this.names = Arrays.copyOf(names, names.length);
         this.valueName = valueName;
@@ -63,6 +75,9 @@ final class OptionMetaData implements MethodParameter {
         this.optional = optional;
         this.nullable = nullable;
         this.completer = completer;
+        this.completerSpec = CompleterSpec.parse(completer);
+        this.converter = converter;
+        this.parameterIndex = parameterIndex;
     }
 
     /**
@@ -147,4 +162,32 @@ final class OptionMetaData implements MethodParameter {
         return completer;
     }
 
+    /**
+     * Returns the parsed completer specification, if any.
+     * 
+     * @return the completer specification, or null
+     */
+    CompleterSpec getCompleterSpec() {
+        return completerSpec;
+    }
+
+    /**
+     * Returns the TypeConverter for the option's type.
+     * 
+     * @return the TypeConverter
+     */
+    public TypeConverter<?> getConverter() {
+        return converter;
+    }
+
+    /**
+     * Returns the index of the associated method parameter. Parsed values
+     * are stored under this index.
+     * 
+     * @return the parameter index
+     */
+    public int getParameterIndex() {
+        return parameterIndex;
+    }
+
 }
@@ -15,24 +15,43 @@
  */
 package org.tyrannyofheaven.bukkit.util.command;
 
-import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
-
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Convenience class to parse a command's arguments and store the results.
+ * Values are stored by parameter index (see {@link OptionMetaData#getParameterIndex()}).
+ * 
+ * <p>Instances are pooled per-thread. Use {@link #acquire()} and
+ * {@link #release()} rather than creating new ones.
  * 
  * @author asaddi
  */
 final class ParsedArgs {
 
-    private final Map<String, String> options = new HashMap<String, String>();
+    private static final String[] NO_ARGS = new String[0];
+
+    // Don't hold on to more than this many free instances per thread
+    private static final int MAX_POOL_SIZE = 4;
+
+    // Free instances. A list rather than a single instance since commands
+    // may be dispatched re-entrantly (e.g. sub-commands, handlers that
+    // dispatch other commands).
+    private static final ThreadLocal<List<ParsedArgs>> pool = new ThreadLocal<List<ParsedArgs>>() {
+        @Override
+        protected List<ParsedArgs> initialValue() {
+            return new ArrayList<ParsedArgs>(MAX_POOL_SIZE);
+        }
+    };
+
+    private String[] values = NO_ARGS;
+
+    private int valueCount;
 
-    private String[] rest = new String[0];
+    private String[] args = NO_ARGS;
+
+    private int restStart;
 
     private OptionMetaData unparsedArgument = null;
 
@@ -40,16 +59,56 @@ final class ParsedArgs {
 
     private boolean parsed = false;
 
-    // Return the OptionMetaData with the given name (usually a flag)
-    private static OptionMetaData getOption(String flag, List<OptionMetaData> options) {
-        for (OptionMetaData omd : options) {
-            for (String name : omd.getNames()) {
-                if (flag.equals(name)) {
-                    return omd;
-                }
+    /**
+     * Retrieve a ParsedArgs instance from this thread's pool, creating one if
+     * necessary.
+     * 
+     * @return a ParsedArgs ready for {@link #parse(CommandMetaData, String[])}
+     */
+    static ParsedArgs acquire() {
+        List<ParsedArgs> free = pool.get();
+        if (free.isEmpty())
+            return new ParsedArgs();
+        return free.remove(free.size() - 1);
+    }
+
+    /**
+     * Reset this instance and return it to this thread's pool. It must not
+     * be used afterwards.
+     */
+    void release() {
+        Arrays.fill(values, 0, valueCount, null);
+        valueCount = 0;
+        args = NO_ARGS;
+        restStart = 0;
+        unparsedArgument = null;
+        parsedPositional = false;
+        parsed = false;
+
+        List<ParsedArgs> free = pool.get();
+        if (free.size() < MAX_POOL_SIZE)
+            free.add(this);
+    }
+
+    // Record a flag and its value, if it takes one. Returns the new position
+    // or -1 if the value is missing.
+    private int parseFlag(OptionMetaData omd, String[] args, int pos) {
+        // Special handling of Boolean and boolean
+        if (omd.getType() == Boolean.class || omd.getType() == Boolean.TYPE) {
+            values[omd.getParameterIndex()] = ""; // value doesn't matter, only existence
+            return pos;
+        }
+        else {
+            // Get value
+            pos++;
+            if (pos >= args.length) {
+                // Premature end
+                return -1;
             }
+
+            values[omd.getParameterIndex()] = args[pos];
+            return pos;
         }
-        return null;
     }
 
     /**
@@ -57,21 +116,27 @@ final class ParsedArgs {
      * 
      * @param cmd
      * @param args
-     * @return 
+     * @return
      */
     public void parse(CommandMetaData cmd, String[] args) {
         if (cmd == null)
             throw new IllegalArgumentException("cmd cannot be null");
 
         if (args == null)
-            args = new String[0];
+            args = NO_ARGS;
 
         if (parsed)
             throw new IllegalStateException("parse already called");
         parsed = true;
 
+        // Make room for values
+        valueCount = cmd.getParameters().size();
+        if (values.length < valueCount)
+            values = new String[valueCount];
+        this.args = args;
+
         int pos = 0;
-        
+
         // Parse flags
         while (pos < args.length) {
             String arg = args[pos];
@@ -86,47 +151,39 @@ final class ParsedArgs {
                 break;
             }
             else {
-                List<String> flags = new LinkedList<String>();
-
-                String flagArg = arg.substring(1);
-                if (!flagArg.startsWith("-")) {
+                if (!arg.startsWith("--")) {
                     // Not a long flag, break it up
-                    for (char c : flagArg.toCharArray()) {
-                        flags.add("-" + Character.toString(c));
+                    for (int i = 1; i < arg.length(); i++) {
+                        char c = arg.charAt(i);
+                        OptionMetaData omd = cmd.getFlagOption(c);
+                        if (omd == null) {
+                            // Unknown option
+                            throw new UnknownFlagException("-" + c);
+                        }
+                        pos = parseFlag(omd, args, pos);
+                        if (pos < 0)
+                            throw new MissingValueException(omd, "-" + c);
                     }
                 }
                 else {
                     // Use long flag as-is
-                    flags.add(arg);
-                }
-
-                for (String flag : flags) {
-                    OptionMetaData omd = getOption(flag, cmd.getFlagOptions());
+                    OptionMetaData omd = cmd.getFlagOption(arg);
                     if (omd == null) {
                         // Unknown option
-                        throw new UnknownFlagException(flag);
-                    }
-                    // Special handling of Boolean and boolean
-                    if (omd.getType() == Boolean.class || omd.getType() == Boolean.TYPE) {
-                        options.put(omd.getName(), ""); // value doesn't matter, only existence
-                    }
-                    else {
-                        // Get value
-                        pos++;
-                        if (pos >= args.length) {
-                            // Premature end
-                            throw new MissingValueException(omd, flag);
-                        }
-
-                        options.put(omd.getName(), args[pos]);
+                        throw new UnknownFlagException(arg);
                     }
+                    pos = parseFlag(omd, args, pos);
+                    if (pos < 0)
+                        throw new MissingValueException(omd, arg);
                 }
                 pos++;
             }
         }
-        
-        // Parse positional args
-        for (OptionMetaData omd : cmd.getPositionalArguments()) {
+
+        // Parse positional args (indexed to avoid allocating an iterator)
+        List<OptionMetaData> positionalArguments = cmd.getPositionalArguments();
+        for (int i = 0; i < positionalArguments.size(); i++) {
+            OptionMetaData omd = positionalArguments.get(i);
             if (!omd.isOptional()) {
                 if (pos >= args.length) {
                     if (omd.isNullable()) {
@@ -141,7 +198,7 @@ final class ParsedArgs {
                     }
                 }
                 else {
-                    options.put(omd.getName(), args[pos++]);
+                    values[omd.getParameterIndex()] = args[pos++];
                     parsedPositional = true;
                 }
             }
@@ -152,44 +209,74 @@ final class ParsedArgs {
                     break;
                 }
                 else {
-                    options.put(omd.getName(), args[pos++]);
+                    values[omd.getParameterIndex()] = args[pos++];
                     parsedPositional = true;
                 }
             }
         }
 
-        rest = Arrays.copyOfRange(args, pos, args.length);
+        restStart = pos;
     }
 
     /**
      * Retrieve associated value for an option.
      * 
-     * @param name the option name
-     * @return the associated String value
+     * @param omd the option
+     * @return the associated String value or null if not present
      */
-    public String getOption(String name) {
-        if (!hasText(name))
-            throw new IllegalArgumentException("name must have a value");
-
-        return options.get(name);
+    public String getValue(OptionMetaData omd) {
+        return values[omd.getParameterIndex()];
     }
 
     /**
-     * Retrieve option map.
+     * Returns whether or not a value (or flag) was given for an option.
      * 
-     * @return the option map
+     * @param omd the option
+     * @return true if present
      */
-    public Map<String, String> getOptions() {
-        return options;
+    public boolean isPresent(OptionMetaData omd) {
+        return getValue(omd) != null;
     }
 
     /**
      * Retrieve unparsed positional parameters.
      * 
-     * @return unparsed positional parameters
+     * @return unparsed positional parameters. This is a new array.
      */
     public String[] getRest() {
-        return rest;
+        return getRest(0);
+    }
+
+    /**
+     * Retrieve unparsed positional parameters, skipping the first few.
+     * 
+     * @param skip number of unparsed parameters to skip
+     * @return unparsed positional parameters. This is a new array.
+     */
+    public String[] getRest(int skip) {
+        int start = Math.min(restStart + skip, args.length);
+        if (start == args.length)
+            return NO_ARGS;
+        return Arrays.copyOfRange(args, start, args.length);
+    }
+
+    /**
+     * Returns the number of unparsed positional parameters.
+     * 
+     * @return number of unparsed positional parameters
+     */
+    public int getRestLength() {
+        return args.length - restStart;
+    }
+
+    /**
+     * Retrieve a single unparsed positional parameter.
+     * 
+     * @param index index into the unparsed parameters
+     * @return the parameter
+     */
+    public String getRestArgument(int index) {
+        return args[restStart + index];
     }
 
     /**
@@ -18,31 +18,144 @@ package org.tyrannyofheaven.bukkit.util.command;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.bukkit.Bukkit;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.util.StringUtil;
 
 /**
  * TypeCompleter for parameters that represent (online) players.
  * 
+ * <p>Once {@link #register(Plugin)} has been called (see
+ * {@link ToHCommandExecutor#registerCompletionIndexes()}), completion is served
+ * from a sorted, case-folded name index that is maintained from join/quit
+ * events. Until then, online players are scanned on each request.
+ * 
+ * <p>The optional argument limits the number of completions, e.g.
+ * <code>player:20</code>. Results cut off at the limit are not cached.
+ * 
  * @author asaddi
  */
-class PlayerTypeCompleter implements TypeCompleter {
+class PlayerTypeCompleter implements TypeCompleter, Listener {
+
+    // Case-folded name -> name
+    private final NavigableMap<String, String> nameIndex = new ConcurrentSkipListMap<String, String>();
+
+    // Plugin the listener is registered with, if any
+    private volatile Plugin plugin;
+
+    private volatile boolean indexed;
+
+    /**
+     * Start maintaining the name index. Must be called from the main thread
+     * while the plugin is enabled. The index is dropped when the plugin is
+     * disabled, so this should be called again on each enable.
+     * 
+     * @param plugin the plugin to register the index's listener with
+     */
+    void register(Plugin plugin) {
+        if (indexed)
+            return;
+        this.plugin = plugin;
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        // Seed with whoever is already online (e.g. after a reload)
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            addName(player.getName());
+        }
+        indexed = true;
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onPluginDisable(PluginDisableEvent event) {
+        if (event.getPlugin() == plugin) {
+            // Our listener is about to be unregistered, so the index would go stale
+            indexed = false;
+            plugin = null;
+            nameIndex.clear();
+        }
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        addName(event.getPlayer().getName());
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        removeName(event.getPlayer().getName());
+    }
+
+    void addName(String name) {
+        nameIndex.put(fold(name), name);
+    }
+
+    void removeName(String name) {
+        nameIndex.remove(fold(name), name);
+    }
 
     @Override
     public List<String> complete(Class<?> clazz, String arg, CommandSender sender, String partial) {
         if (clazz == String.class) {
+            int limit = getLimit(arg);
+            if (indexed)
+                return getPrefixMatches(partial, limit);
+
             List<String> result = new ArrayList<String>();
             for (Player player : Bukkit.getOnlinePlayers()) {
                 if (StringUtil.startsWithIgnoreCase(player.getName(), partial))
                     result.add(player.getName());
             }
-            Collections.sort(result);
+            // Same order as the index, so the same names survive the limit
+            Collections.sort(result, String.CASE_INSENSITIVE_ORDER);
+            if (result.size() > limit)
+                result = new TruncatedCompletions(result.subList(0, limit));
             return result;
         }
         return Collections.emptyList();
     }
 
+    // Names starting with the given prefix (case-insensitive), ordered
+    // case-insensitively
+    List<String> getPrefixMatches(String prefix, int limit) {
+        String from = fold(prefix);
+        NavigableMap<String, String> range = from.isEmpty() ? nameIndex : nameIndex.subMap(from, true, from + Character.MAX_VALUE, false);
+
+        List<String> result = new ArrayList<String>();
+        for (String name : range.values()) {
+            if (result.size() >= limit)
+                return new TruncatedCompletions(result); // more where that came from
+            result.add(name);
+        }
+        return result;
+    }
+
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+
+    private static int getLimit(String arg) {
+        if (arg != null) {
+            try {
+                int limit = Integer.parseInt(arg.trim());
+                if (limit > 0)
+                    return limit;
+            }
+            catch (NumberFormatException e) {
+                // Ignore, unbounded
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * CommandInvoker that uses plain reflection. Used whenever an invoker
+ * cannot be generated.
+ *
+ * @author asaddi
+ */
+final class ReflectiveCommandInvoker implements CommandInvoker {
+
+    private final Method method;
+
+    ReflectiveCommandInvoker(Method method) {
+        if (method == null)
+            throw new IllegalArgumentException("method cannot be null");
+
+        try {
+            // Skip access checks on every call
+            method.setAccessible(true);
+        }
+        catch (RuntimeException e) {
+            // Not fatal, just slower
+        }
+        this.method = method;
+    }
+
+    /* (non-Javadoc)
+     * @see org.tyrannyofheaven.bukkit.util.command.CommandInvoker#invoke(java.lang.Object, java.lang.Object[])
+     */
+    @Override
+    public Object invoke(Object handler, Object[] args) throws Throwable {
+        try {
+            return method.invoke(handler, args);
+        }
+        catch (InvocationTargetException e) {
+            // Unwrap exception, re-throw
+            throw e.getCause();
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Annotates a command method that returns a sub-command handler, declaring
+ * the handler's class. Tab completion then walks the declared class's
+ * commands directly and never invokes the command method, so the method may
+ * have side-effects.
+ * 
+ * <p>The declared class must be assignable to the method's return type.
+ * Handler objects actually returned by the method should be instances of
+ * it.
+ * 
+ * @author asaddi
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface SubCommandHandler {
+
+    /**
+     * The class of the sub-command handler.
+     */
+    public Class<?> value();
+
+}
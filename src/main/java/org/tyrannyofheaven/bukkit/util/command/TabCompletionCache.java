@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.command.CommandSender;
+import org.bukkit.util.StringUtil;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Short-lived, per-sender cache of tab completion results. Only the most
+ * recent result for each sender is held. A later query for the same command
+ * path and argument index whose prefix extends the cached prefix is answered
+ * by narrowing the cached candidates rather than recomputing them.
+ *
+ * <p>This relies on completions being all the prefix matches of the query,
+ * which is true of the built-in completers (aside from a capped player list,
+ * which is never cached). Because of that, it is off unless a TTL is set.
+ *
+ * @author asaddi
+ */
+final class TabCompletionCache {
+
+    // Weakly-keyed (by identity) so senders that log off may be collected
+    private final ConcurrentMap<CommandSender, Entry> entries = new MapMaker().weakKeys().makeMap();
+
+    private volatile long ttl; // nanoseconds
+
+    /**
+     * Create a TabCompletionCache instance.
+     *
+     * @param ttl how long, in milliseconds, a computed result may be reused. 0 disables caching.
+     */
+    TabCompletionCache(long ttl) {
+        setTtl(ttl);
+    }
+
+    /**
+     * Set how long a computed result may be reused.
+     *
+     * @param ttl time-to-live in milliseconds. 0 disables caching.
+     */
+    void setTtl(long ttl) {
+        if (ttl < 0L)
+            throw new IllegalArgumentException("ttl must be non-negative");
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+        if (ttl == 0L)
+            entries.clear();
+    }
+
+    /**
+     * Build the command path key for the given command name and arguments.
+     * The last argument (the query) is not part of the path.
+     *
+     * @param name the command name
+     * @param args the arguments, including the query
+     * @return the command path
+     */
+    static String getPath(String name, String[] args) {
+        StringBuilder sb = new StringBuilder(name);
+        for (int i = 0; i < args.length - 1; i++) {
+            sb.append('\0');
+            sb.append(args[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Retrieve completions for the given query, narrowing a previous result
+     * if possible.
+     *
+     * @param sender the command sender
+     * @param path the command path
+     * @param index index of the argument being completed
+     * @param prefix the query
+     * @return a new list of completions, or null if there is no usable cached result
+     */
+    List<String> get(CommandSender sender, String path, int index, String prefix) {
+        Entry entry = entries.get(sender);
+        if (entry == null)
+            return null;
+
+        if (System.nanoTime() - entry.created >= ttl ||
+                entry.index != index ||
+                !entry.path.equals(path) ||
+                !StringUtil.startsWithIgnoreCase(prefix, entry.prefix) ||
+                // Going from an argument to a flag (or back) changes what's completed
+                OptionMetaData.isArgument(prefix) != OptionMetaData.isArgument(entry.prefix))
+            return null;
+
+        List<String> result = new ArrayList<String>();
+        StringUtil.copyPartialMatches(prefix, entry.candidates, result);
+
+        // Narrow from here next time, but don't extend the original lifetime
+        entries.replace(sender, entry, new Entry(path, index, prefix, new ArrayList<String>(result), entry.created));
+        return result;
+    }
+
+    /**
+     * Cache a freshly computed result.
+     *
+     * @param sender the command sender
+     * @param path the command path
+     * @param index index of the argument being completed
+     * @param prefix the query
+     * @param candidates the completions for the query
+     */
+    void put(CommandSender sender, String path, int index, String prefix, List<String> candidates) {
+        if (ttl == 0L)
+            return;
+        if (candidates instanceof TruncatedCompletions) {
+            // Can't narrow a partial list; don't let an older result linger either
+            entries.remove(sender);
+            return;
+        }
+        entries.put(sender, new Entry(path, index, prefix, new ArrayList<String>(candidates), System.nanoTime()));
+    }
+
+    private static final class Entry {
+
+        private final String path;
+
+        private final int index;
+
+        private final String prefix;
+
+        private final List<String> candidates;
+
+        private final long created;
+
+        private Entry(String path, int index, String prefix, List<String> candidates, long created) {
+            this.path = path;
+            this.index = index;
+            this.prefix = prefix;
+            this.candidates = candidates;
+            this.created = created;
+        }
+
+    }
+
+}
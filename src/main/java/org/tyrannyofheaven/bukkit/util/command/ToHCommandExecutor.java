@@ -15,14 +15,13 @@
  */
 package org.tyrannyofheaven.bukkit.util.command;
 
+import static org.tyrannyofheaven.bukkit.util.ToHLoggingUtils.debug;
 import static org.tyrannyofheaven.bukkit.util.ToHLoggingUtils.error;
 import static org.tyrannyofheaven.bukkit.util.ToHLoggingUtils.warn;
 import static org.tyrannyofheaven.bukkit.util.ToHMessageUtils.sendMessage;
 import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
 import static org.tyrannyofheaven.bukkit.util.permissions.PermissionUtils.displayPermissionException;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -51,8 +50,14 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
 
     private Map<String, TypeCompleter> typeCompleterRegistry = new HashMap<String, TypeCompleter>();
 
+    private final PlayerTypeCompleter playerTypeCompleter = new PlayerTypeCompleter();
+
+    private final WorldTypeCompleter worldTypeCompleter = new WorldTypeCompleter();
+
     private boolean quoteAware = false;
 
+    private final TabCompletionCache tabCompletionCache = new TabCompletionCache(0L);
+
     /**
      * Create an instance.
      * 
@@ -65,12 +70,16 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
 
         this.plugin = plugin;
 
+        // Handler classes already scanned (by this or another plugin) are
+        // only bound, so this should be cheap after the first time
+        long start = System.nanoTime();
         rootHandlerExecutor = new HandlerExecutor<T>(plugin, usageOptions, handlers);
+        debug(plugin, "Processed %d command handler(s) in %.2f ms", handlers == null ? 0 : handlers.length, (System.nanoTime() - start) / 1000000.0);
         
         // Register default TypeCompleters
         registerTypeCompleter("constant", new ConstantTypeCompleter());
-        registerTypeCompleter("player", new PlayerTypeCompleter());
-        registerTypeCompleter("world", new WorldTypeCompleter());
+        registerTypeCompleter("player", playerTypeCompleter);
+        registerTypeCompleter("world", worldTypeCompleter);
     }
 
     /**
@@ -80,6 +89,18 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
         rootHandlerExecutor.registerCommands(this);
     }
 
+    /**
+     * Start maintaining the indexes used by the default <code>player</code>
+     * and <code>world</code> TypeCompleters. Must be called while the plugin
+     * is enabled (e.g. from <code>onEnable()</code>) and again on each
+     * enable, since the indexes are dropped when the plugin is disabled.
+     * Without them, online players and worlds are scanned on each completion.
+     */
+    public void registerCompletionIndexes() {
+        playerTypeCompleter.register(plugin);
+        worldTypeCompleter.register(plugin);
+    }
+
     public ToHCommandExecutor<T> registerTypeCompleter(String name, TypeCompleter typeCompleter) {
         if (!ToHStringUtils.hasText(name))
             throw new IllegalArgumentException("name must have a value");
@@ -95,6 +116,7 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
             throw new IllegalArgumentException("usageOptions cannot be null");
         
         this.usageOptions = usageOptions;
+        rootHandlerExecutor.clearUsageStrings();
         return this;
     }
 
@@ -103,6 +125,25 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
         return this;
     }
 
+    /**
+     * Set how long tab completion results are kept for each sender. Within
+     * this time, a query that extends the previous one narrows the previous
+     * results instead of recomputing them. Disabled by default.
+     * 
+     * <p>Only enable this if every registered TypeCompleter returns all (and
+     * only) the values starting with the partial argument. Completers that do
+     * substring or fuzzy matching, or that cap the number of results, will
+     * give wrong completions when narrowed. Results that depend on
+     * permissions or other state may also be up to this old.
+     * 
+     * @param tabCompletionCacheTtl time-to-live in milliseconds. 0 disables caching.
+     * @return this ToHCommandExecutor
+     */
+    public ToHCommandExecutor<T> setTabCompletionCacheTtl(long tabCompletionCacheTtl) {
+        tabCompletionCache.setTtl(tabCompletionCacheTtl);
+        return this;
+    }
+
     /* (non-Javadoc)
      * @see org.bukkit.command.CommandExecutor#onCommand(org.bukkit.command.CommandSender, org.bukkit.command.Command, java.lang.String, java.lang.String[])
      */
@@ -111,7 +152,7 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
         InvocationChain invChain = new InvocationChain();
 
         if (quoteAware)
-            args = split(ToHStringUtils.delimitedString(" ", (Object[])args));
+            args = new ArgumentTokenizer(args, args.length).getTokens(0);
 
         try {
             // NB: We use command.getName() rather than label. This allows the
@@ -128,7 +169,7 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
             // Show message if one was given
             if (hasText(e.getMessage()))
                 sendMessage(sender, "%s%s", ChatColor.RED, e.getMessage());
-            sendMessage(sender, invChain.getUsageString(usageOptions));
+            sendMessage(sender, rootHandlerExecutor.getUsageString(invChain, usageOptions, false));
             return true;
         }
         catch (Error e) {
@@ -145,27 +186,28 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         if (quoteAware) {
-            // Isolate query argument (last argument)
-            String query;
-            String[] argsNoQuery;
+            // Tokenize everything but the query argument (last argument),
+            // then add the query back unprocessed
             if (args.length > 0) {
-                // Have at least one
-                query = args[args.length - 1];
-                argsNoQuery = Arrays.copyOfRange(args, 0, args.length - 1);
+                String query = args[args.length - 1];
+                args = new ArgumentTokenizer(args, args.length - 1).getTokens(1);
+                args[args.length - 1] = query;
             }
             else {
-                query = "";
-                argsNoQuery = args;
+                args = new String[] { "" };
             }
-
-            args = split(ToHStringUtils.delimitedString(" ", (Object[])argsNoQuery));
-            // Extend and add query
-            args = Arrays.copyOfRange(args, 0, args.length + 1);
-            args[args.length - 1] = query;
         }
 
+        // Narrow the sender's previous results, if possible
+        String path = TabCompletionCache.getPath(command.getName(), args);
+        int index = args.length - 1;
+        String query = args.length > 0 ? args[index] : "";
+        List<String> cached = tabCompletionCache.get(sender, path, index, query);
+        if (cached != null)
+            return cached;
+
         try {
-            return rootHandlerExecutor.getTabCompletions(sender, command.getName(), alias, args, null, null, typeCompleterRegistry);
+            return getTabCompletions(sender, command.getName(), alias, args, path, index, query);
         }
         catch (PermissionException e) {
             displayPermissionException(sender, e);
@@ -186,83 +228,11 @@ public class ToHCommandExecutor<T extends Plugin> implements TabExecutor {
         }
     }
 
-    private String[] split(String input) {
-        List<String> result = new ArrayList<String>();
-
-        SplitState state = SplitState.NORMAL;
-        StringBuilder current = new StringBuilder();
-
-        for (int i = 0; i < input.length(); i++) {
-            char c = input.charAt(i);
-
-            switch (state) {
-            case NORMAL:
-                if (c == '\\') {
-                    // Start of escape sequence
-                    state = SplitState.ESCAPED;
-                }
-                else if (c == '"') {
-                    // Open quotes
-                    state = SplitState.QUOTED;
-                }
-                else {
-                    if (current.length() == 0) {
-                        // Current token empty, skip leading white spaces
-                        if (!Character.isWhitespace(c))
-                            current.append(c);
-                    }
-                    else if (Character.isWhitespace(c)) {
-                        // End of token
-                        result.add(current.toString());
-                        current = new StringBuilder();
-                    }
-                    else {
-                        current.append(c);
-                    }
-                }
-                break;
-            case ESCAPED:
-            case QUOTED_ESCAPED:
-                if (c == '\\') {
-                    current.append('\\');
-                }
-                else if (c == '"') {
-                    current.append('"');
-                }
-                else {
-                    // Not a valid escape
-                    current.append('\\');
-                    current.append(c);
-                }
-                state = state == SplitState.ESCAPED ? SplitState.NORMAL : SplitState.QUOTED;
-                break;
-            case QUOTED:
-                if (c == '\\') {
-                    state = SplitState.QUOTED_ESCAPED;
-                }
-                else if (c == '"') {
-                    // Close quotes
-                    state = SplitState.NORMAL;
-                }
-                else {
-                    // Append unconditionally
-                    current.append(c);
-                }
-                break;
-            default:
-                throw new AssertionError("Unhandled SplitState." + state);
-            }
-        }
-
-        // Check final token
-        if (current.length() > 0)
-            result.add(current.toString());
-
-        return result.toArray(new String[result.size()]);
-    }
-
-    private static enum SplitState {
-        NORMAL, ESCAPED, QUOTED, QUOTED_ESCAPED;
+    // Compute completions and cache the result
+    private List<String> getTabCompletions(CommandSender sender, String name, String alias, String[] args, String path, int index, String query) throws Throwable {
+        List<String> result = rootHandlerExecutor.getTabCompletions(sender, name, alias, args, null, null, typeCompleterRegistry);
+        tabCompletionCache.put(sender, path, index, query, result);
+        return result;
     }
 
 }
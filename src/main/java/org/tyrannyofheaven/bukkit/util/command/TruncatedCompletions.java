@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Completions that were cut off at some limit, so they can't be narrowed
+ * for a longer prefix. {@link TabCompletionCache} won't cache these.
+ * 
+ * @author asaddi
+ */
+final class TruncatedCompletions extends ArrayList<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    TruncatedCompletions(Collection<String> completions) {
+        super(completions);
+    }
+
+}
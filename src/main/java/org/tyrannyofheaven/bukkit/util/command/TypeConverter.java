@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+/**
+ * Converts command arguments into the type of an {@link Option}-annotated
+ * parameter. Register with {@link TypeConverters#registerTypeConverter(Class, TypeConverter)}.
+ *
+ * @author asaddi
+ *
+ * @param <T> the parameter type
+ */
+public interface TypeConverter<T> {
+
+    /**
+     * Convert a command argument.
+     *
+     * @param text the argument. Never null.
+     * @return the converted value
+     * @throws IllegalArgumentException if the argument is invalid. The user
+     *   will be shown an error message and the command usage. Alternatively,
+     *   throw a {@link ParseException} with a more specific message.
+     */
+    public T convert(String text);
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of {@link TypeConverter}s. Converters for String, the primitive
+ * types and their wrappers are built in. Plugins may register their own,
+ * e.g. for Player, World or UUID parameters.
+ *
+ * <p>Converters are resolved when handler objects are processed, so they
+ * must be registered before creating the {@link ToHCommandExecutor}.
+ *
+ * @author asaddi
+ */
+public final class TypeConverters {
+
+    private static final Map<Class<?>, Class<?>> primitiveWrappers;
+
+    private static final ConcurrentMap<Class<?>, TypeConverter<?>> typeConverters = new ConcurrentHashMap<Class<?>, TypeConverter<?>>();
+
+    static {
+        // Build map of primitives to primitive wrappers
+        Map<Class<?>, Class<?>> wrappers = new HashMap<Class<?>, Class<?>>();
+        wrappers.put(Boolean.TYPE, Boolean.class);
+        wrappers.put(Byte.TYPE, Byte.class);
+        wrappers.put(Short.TYPE, Short.class);
+        wrappers.put(Integer.TYPE, Integer.class);
+        wrappers.put(Long.TYPE, Long.class);
+        wrappers.put(Float.TYPE, Float.class);
+        wrappers.put(Double.TYPE, Double.class);
+        primitiveWrappers = Collections.unmodifiableMap(wrappers);
+
+        // Built-in converters. These parse directly rather than going through
+        // valueOf(String) reflectively.
+        registerTypeConverter(String.class, new TypeConverter<String>() {
+            @Override
+            public String convert(String text) {
+                return text;
+            }
+        });
+        registerTypeConverter(Boolean.class, new TypeConverter<Boolean>() {
+            @Override
+            public Boolean convert(String text) {
+                return toBoolean(text);
+            }
+        });
+        registerTypeConverter(Byte.class, new TypeConverter<Byte>() {
+            @Override
+            public Byte convert(String text) {
+                return Byte.parseByte(text);
+            }
+        });
+        registerTypeConverter(Short.class, new TypeConverter<Short>() {
+            @Override
+            public Short convert(String text) {
+                return Short.parseShort(text);
+            }
+        });
+        registerTypeConverter(Integer.class, new TypeConverter<Integer>() {
+            @Override
+            public Integer convert(String text) {
+                return Integer.parseInt(text);
+            }
+        });
+        registerTypeConverter(Long.class, new TypeConverter<Long>() {
+            @Override
+            public Long convert(String text) {
+                return Long.parseLong(text);
+            }
+        });
+        registerTypeConverter(Float.class, new TypeConverter<Float>() {
+            @Override
+            public Float convert(String text) {
+                return Float.parseFloat(text);
+            }
+        });
+        registerTypeConverter(Double.class, new TypeConverter<Double>() {
+            @Override
+            public Double convert(String text) {
+                return Double.parseDouble(text);
+            }
+        });
+    }
+
+    private TypeConverters() {
+        throw new AssertionError("Don't instantiate me!");
+    }
+
+    /**
+     * Register a TypeConverter. Replaces any existing converter for the
+     * given type. Converters for primitive types should be registered
+     * under the wrapper type.
+     *
+     * @param type the parameter type
+     * @param typeConverter the TypeConverter
+     */
+    public static <T> void registerTypeConverter(Class<T> type, TypeConverter<? extends T> typeConverter) {
+        if (type == null)
+            throw new IllegalArgumentException("type cannot be null");
+        if (type.isPrimitive())
+            throw new IllegalArgumentException("type cannot be primitive");
+        if (typeConverter == null)
+            throw new IllegalArgumentException("typeConverter cannot be null");
+
+        typeConverters.put(type, typeConverter);
+    }
+
+    /**
+     * Retrieve the TypeConverter for the given parameter type.
+     *
+     * @param type the parameter type. Primitives are mapped to their wrappers.
+     * @return the TypeConverter or null if there is none
+     */
+    static TypeConverter<?> getTypeConverter(Class<?> type) {
+        Class<?> wrapper = primitiveWrappers.get(type);
+        if (wrapper != null)
+            type = wrapper;
+        return typeConverters.get(type);
+    }
+
+    // Convert string to boolean (a little more friendlier than Boolean.valueOf(String))
+    private static boolean toBoolean(String text) {
+        text = text.trim().toLowerCase();
+        if ("true".equals(text) || "t".equals(text) || "yes".equals(text) || "y".equals(text) || "on".equals(text))
+            return true;
+        else if ("false".equals(text) || "f".equals(text) || "no".equals(text) || "n".equals(text) || "off".equals(text))
+            return false;
+        else
+            throw new IllegalArgumentException("Cannot convert string to boolean");
+    }
+
+}
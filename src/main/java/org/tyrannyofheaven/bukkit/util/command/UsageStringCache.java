@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches rendered usage strings by chain shape (label and command method of
+ * each invocation), UsageOptions instance and whether the description is
+ * included. The number of shapes is bounded by the command tree, but
+ * HelpBuilder may be handed any number of UsageOptions instances, so the
+ * cache is also capped.
+ * 
+ * @author asaddi
+ */
+final class UsageStringCache {
+
+    private static final int MAX_SIZE = 1024;
+
+    private final ConcurrentMap<Key, String> usageStrings = new ConcurrentHashMap<Key, String>();
+
+    /**
+     * Retrieve the usage string for the given chain, rendering it if
+     * necessary.
+     * 
+     * @param invChain the InvocationChain
+     * @param usageOptions the UsageOptions to render with
+     * @param withDescription true if the last command's description should be included
+     * @return the usage string
+     */
+    String getUsageString(InvocationChain invChain, UsageOptions usageOptions, boolean withDescription) {
+        Key key = new Key(invChain.getShape(), usageOptions, withDescription);
+        String usage = usageStrings.get(key);
+        if (usage == null) {
+            usage = invChain.getUsageString(usageOptions, withDescription);
+            if (usageStrings.size() >= MAX_SIZE)
+                usageStrings.clear(); // start over
+            usageStrings.put(key, usage); // doesn't matter who wins
+        }
+        return usage;
+    }
+
+    /**
+     * Discard all cached usage strings.
+     */
+    void clear() {
+        usageStrings.clear();
+    }
+
+    private static final class Key {
+
+        private final List<Object> shape;
+
+        private final UsageOptions usageOptions;
+
+        private final boolean withDescription;
+
+        private Key(List<Object> shape, UsageOptions usageOptions, boolean withDescription) {
+            this.shape = shape;
+            this.usageOptions = usageOptions;
+            this.withDescription = withDescription;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) return true;
+            if (!(obj instanceof Key)) return false;
+            Key o = (Key)obj;
+            // UsageOptions compared by identity
+            return usageOptions == o.usageOptions &&
+                    withDescription == o.withDescription &&
+                    shape.equals(o.shape);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = 17;
+            result = 37 * result + shape.hashCode();
+            result = 37 * result + System.identityHashCode(usageOptions);
+            result = 37 * result + (withDescription ? 1 : 0);
+            return result;
+        }
+
+    }
+
+}
@@ -16,33 +16,117 @@
 package org.tyrannyofheaven.bukkit.util.command;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.command.CommandSender;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.server.PluginDisableEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.util.StringUtil;
 
 /**
  * TypeCompleter for world names.
  * 
+ * <p>Once {@link #register(Plugin)} has been called (see
+ * {@link ToHCommandExecutor#registerCompletionIndexes()}), completion is served
+ * from a sorted snapshot of world names that is replaced on world
+ * load/unload. Until then, worlds are scanned on each request.
+ * 
  * @author asaddi
  */
-class WorldTypeCompleter implements TypeCompleter {
+class WorldTypeCompleter implements TypeCompleter, Listener {
+
+    // Sorted case-insensitively. Replaced, never modified.
+    private volatile String[] worldNames = new String[0];
+
+    // Plugin the listener is registered with, if any
+    private volatile Plugin plugin;
+
+    private volatile boolean indexed;
+
+    /**
+     * Start maintaining the world name snapshot. Must be called from the main
+     * thread while the plugin is enabled. The snapshot is dropped when the
+     * plugin is disabled, so this should be called again on each enable.
+     * 
+     * @param plugin the plugin to register the snapshot's listener with
+     */
+    void register(Plugin plugin) {
+        if (indexed)
+            return;
+        this.plugin = plugin;
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        for (World world : plugin.getServer().getWorlds()) {
+            addName(world.getName());
+        }
+        indexed = true;
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onPluginDisable(PluginDisableEvent event) {
+        if (event.getPlugin() == plugin) {
+            // Our listener is about to be unregistered, so the snapshot would go stale
+            synchronized (this) {
+                indexed = false;
+                plugin = null;
+                worldNames = new String[0];
+            }
+        }
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event) {
+        addName(event.getWorld().getName());
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR, ignoreCancelled=true)
+    public void onWorldUnload(WorldUnloadEvent event) {
+        removeName(event.getWorld().getName());
+    }
+
+    synchronized void addName(String name) {
+        if (Arrays.asList(worldNames).contains(name))
+            return;
+        String[] newNames = Arrays.copyOf(worldNames, worldNames.length + 1);
+        newNames[newNames.length - 1] = name;
+        Arrays.sort(newNames, String.CASE_INSENSITIVE_ORDER);
+        worldNames = newNames;
+    }
+
+    synchronized void removeName(String name) {
+        List<String> newNames = new ArrayList<String>(Arrays.asList(worldNames));
+        if (newNames.remove(name))
+            worldNames = newNames.toArray(new String[newNames.size()]);
+    }
 
     @Override
     public List<String> complete(Class<?> clazz, String arg, CommandSender sender, String partial) {
         if (clazz == String.class) {
+            if (indexed)
+                return getPrefixMatches(partial);
+
             List<String> result = new ArrayList<String>();
             for (World world : Bukkit.getWorlds()) {
                 if (StringUtil.startsWithIgnoreCase(world.getName(), partial))
                     result.add(world.getName());
             }
-            Collections.sort(result);
+            Collections.sort(result, String.CASE_INSENSITIVE_ORDER); // same order as the snapshot
             return result;
         }
         return Collections.emptyList();
     }
 
+    // World names starting with the given prefix (case-insensitive)
+    List<String> getPrefixMatches(String prefix) {
+        return ConstantTypeCompleter.getPrefixMatches(worldNames, prefix);
+    }
+
 }
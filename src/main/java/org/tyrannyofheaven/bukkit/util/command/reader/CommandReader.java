@@ -1,6 +1,5 @@
 package org.tyrannyofheaven.bukkit.util.command.reader;
 
-import static org.tyrannyofheaven.bukkit.util.ToHMessageUtils.colorize;
 import static org.tyrannyofheaven.bukkit.util.ToHMessageUtils.sendMessage;
 import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.delimitedString;
 import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
@@ -21,6 +20,7 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.Plugin;
+import org.tyrannyofheaven.bukkit.util.MessageTemplate;
 
 /**
  * Utility class to read a file containing commands and execute them.
@@ -32,6 +32,9 @@ public class CommandReader {
     // Used to hold the batch processing abort flag
     private static final ThreadLocal<Boolean> abortFlags = new ThreadLocal<Boolean>();
 
+    // Echo of each executed command
+    private static final MessageTemplate ECHO_TEMPLATE = MessageTemplate.compile("{GRAY}%s%s%s%s");
+
     /**
      * Execute commands from a file. Commands will be echoed back to the sender.
      * 
@@ -151,7 +154,7 @@ public class CommandReader {
             for (CommandCall call : calls) {
                 try {
                     if (echo) {
-                        sendMessage(sender, colorize("{GRAY}%s%s%s%s"),
+                        sendMessage(sender, ECHO_TEMPLATE,
                                 (sender instanceof Player ? "/" : ""),
                                 call.getAlias(),
                                 (call.getArgs().length > 0 ? " " : ""),
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.permissions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.permissions.Permissible;
+import org.bukkit.plugin.Plugin;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Memoizes {@link PermissionRequirement} results per Permissible. Install
+ * with {@link PermissionUtils#setPermissionCache(PermissionCache)}.
+ * 
+ * <p>Bukkit has no event for permission recalculation, so results are kept
+ * for at most the given time-to-live. Once registered, a player's results
+ * are also discarded when they join, quit or change worlds. Anything that
+ * changes permissions directly should call {@link #invalidate(Permissible)}.
+ * 
+ * @author asaddi
+ */
+public class PermissionCache implements Listener {
+
+    // Weakly-keyed (by identity) so permissibles may be collected
+    private final ConcurrentMap<Permissible, ConcurrentMap<PermissionRequirement, Result>> results = new MapMaker().weakKeys().makeMap();
+
+    private final long ttl; // nanoseconds
+
+    /**
+     * Create a PermissionCache.
+     * 
+     * @param ttl how long, in milliseconds, a result may be reused
+     */
+    public PermissionCache(long ttl) {
+        if (ttl <= 0L)
+            throw new IllegalArgumentException("ttl must be positive");
+        this.ttl = TimeUnit.MILLISECONDS.toNanos(ttl);
+    }
+
+    /**
+     * Discard results on player join, quit and world change. Must be called
+     * from the main thread while the plugin is enabled.
+     * 
+     * @param plugin the plugin to register the listener with
+     * @return this PermissionCache
+     */
+    public PermissionCache register(Plugin plugin) {
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+        return this;
+    }
+
+    /**
+     * Test if a permissible satisfies a requirement, using a previous result
+     * if it hasn't expired.
+     * 
+     * @param permissible the permissible
+     * @param requirement the requirement
+     * @return true if the requirement is met
+     */
+    public boolean isSatisfiedBy(Permissible permissible, PermissionRequirement requirement) {
+        if (requirement.isEmpty())
+            return true;
+
+        ConcurrentMap<PermissionRequirement, Result> permissibleResults = results.get(permissible);
+        if (permissibleResults == null) {
+            permissibleResults = new ConcurrentHashMap<PermissionRequirement, Result>();
+            ConcurrentMap<PermissionRequirement, Result> old = results.putIfAbsent(permissible, permissibleResults);
+            if (old != null)
+                permissibleResults = old;
+        }
+
+        long now = System.nanoTime();
+        Result result = permissibleResults.get(requirement);
+        if (result == null || now - result.created >= ttl) {
+            result = new Result(requirement.isSatisfiedBy(permissible), now);
+            permissibleResults.put(requirement, result);
+        }
+        return result.value;
+    }
+
+    /**
+     * Discard all results for a permissible.
+     * 
+     * @param permissible the permissible
+     */
+    public void invalidate(Permissible permissible) {
+        results.remove(permissible);
+    }
+
+    /**
+     * Discard all results.
+     */
+    public void invalidateAll() {
+        results.clear();
+    }
+
+    // Invalidate at MONITOR, after permission plugins have updated their
+    // attachments, so nothing checked during the event stays cached
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+    @EventHandler(priority=EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event) {
+        invalidate(event.getPlayer());
+    }
+
+    private static final class Result {
+
+        private final boolean value;
+
+        private final long created;
+
+        private Result(boolean value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+
+    }
+
+}
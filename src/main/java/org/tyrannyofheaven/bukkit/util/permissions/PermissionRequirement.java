@@ -0,0 +1,180 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.permissions;
+
+import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
+
+import java.util.Arrays;
+
+import org.bukkit.permissions.Permissible;
+
+/**
+ * An immutable permission requirement: a set of permissions, whether all or
+ * just one of them is required and whether explicitly false permissions
+ * fail the check. Requirements with the same signature are equal, so they
+ * may be used as keys when grouping or memoizing checks.
+ * 
+ * @author asaddi
+ */
+public final class PermissionRequirement {
+
+    /**
+     * The requirement that is always satisfied.
+     */
+    public static final PermissionRequirement NONE = new PermissionRequirement(true, false);
+
+    private final String[] permissions;
+
+    private final boolean all;
+
+    private final boolean checkNegations;
+
+    private final int hashCode;
+
+    /**
+     * Create a PermissionRequirement.
+     * 
+     * @param all true if all permissions are required
+     * @param checkNegations true if any explicitly false permission should mean
+     *     the check fails. Ignored if all is true.
+     * @param permissions the permissions
+     */
+    public PermissionRequirement(boolean all, boolean checkNegations, String... permissions) {
+        if (permissions == null)
+            permissions = new String[0];
+        for (String permission : permissions) {
+            if (!hasText(permission))
+                throw new IllegalArgumentException("permission must have a value");
+        }
+
+        this.permissions = Arrays.copyOf(permissions, permissions.length);
+        this.all = all;
+        this.checkNegations = !all && checkNegations;
+        this.hashCode = 31 * Arrays.hashCode(this.permissions) + (this.all ? 2 : 0) + (this.checkNegations ? 1 : 0);
+    }
+
+    /**
+     * Returns a copy of the permissions.
+     * 
+     * @return the permissions
+     */
+    public String[] getPermissions() {
+        return Arrays.copyOf(permissions, permissions.length);
+    }
+
+    /**
+     * Returns whether all permissions are required.
+     * 
+     * @return true if all permissions are required
+     */
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * Returns whether explicitly false permissions fail the check.
+     * 
+     * @return true if negations are checked
+     */
+    public boolean isCheckNegations() {
+        return checkNegations;
+    }
+
+    /**
+     * Returns whether this requirement is always satisfied.
+     * 
+     * @return true if there are no permissions
+     */
+    public boolean isEmpty() {
+        return permissions.length == 0;
+    }
+
+    /**
+     * Test if a permissible satisfies this requirement.
+     * 
+     * @param permissible the permissible
+     * @return true if the requirement is met
+     */
+    public boolean isSatisfiedBy(Permissible permissible) {
+        // Permissions were validated on creation
+        if (all) {
+            for (String permission : permissions) {
+                if (!permissible.hasPermission(permission))
+                    return false;
+            }
+            return true;
+        }
+        else if (permissions.length == 0) {
+            return true;
+        }
+        else if (!checkNegations) {
+            for (String permission : permissions) {
+                if (permissible.hasPermission(permission))
+                    return true; // short-circuit true
+            }
+            return false;
+        }
+        else {
+            boolean found = false;
+            for (String permission : permissions) {
+                if (permissible.hasPermission(permission)) {
+                    found = true; // no short-circuit; check all (for negations)
+                }
+                else if (permissible.isPermissionSet(permission)) {
+                    return false; // short-circuit negation
+                }
+            }
+            return found;
+        }
+    }
+
+    /**
+     * Require a permissible to satisfy this requirement.
+     * 
+     * @param permissible the permissible
+     * @throws PermissionException if the requirement is not met
+     */
+    public void require(Permissible permissible) {
+        if (!isSatisfiedBy(permissible))
+            throw newPermissionException();
+    }
+
+    // Create the PermissionException describing this requirement
+    PermissionException newPermissionException() {
+        return new PermissionException(all, checkNegations, permissions);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (!(obj instanceof PermissionRequirement)) return false;
+        PermissionRequirement o = (PermissionRequirement)obj;
+        return all == o.all &&
+                checkNegations == o.checkNegations &&
+                Arrays.equals(permissions, o.permissions);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PermissionRequirement[%s%s%s]", all ? "all" : "one", checkNegations ? ",checkNegations" : "", Arrays.toString(permissions));
+    }
+
+}
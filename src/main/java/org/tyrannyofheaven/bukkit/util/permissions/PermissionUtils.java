@@ -16,7 +16,16 @@
 package org.tyrannyofheaven.bukkit.util.permissions;
 
 import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.hasText;
-import static org.tyrannyofheaven.bukkit.util.ToHMessageUtils.sendMessage;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
@@ -29,10 +38,160 @@ import org.bukkit.permissions.Permissible;
  */
 public class PermissionUtils {
 
+    // Smallest number of permissibles worth handing to another thread
+    private static final int MIN_PARALLEL_CHUNK = 64;
+
+    private static volatile PermissionCache permissionCache;
+
     private PermissionUtils() {
         throw new AssertionError("Don't instantiate me!");
     }
 
+    /**
+     * Install a cache for {@link PermissionRequirement} checks made through
+     * {@link #hasPermissions(Permissible, PermissionRequirement)} and
+     * {@link #requirePermissions(Permissible, PermissionRequirement)}.
+     * 
+     * @param permissionCache the cache, or null to disable caching
+     */
+    public static void setPermissionCache(PermissionCache permissionCache) {
+        PermissionUtils.permissionCache = permissionCache;
+    }
+
+    /**
+     * Returns the installed permission cache.
+     * 
+     * @return the permission cache, or null if caching is disabled
+     */
+    public static PermissionCache getPermissionCache() {
+        return permissionCache;
+    }
+
+    /**
+     * Test if a permissible satisfies a requirement. Uses the installed
+     * PermissionCache, if any.
+     * 
+     * @param permissible the permissible
+     * @param requirement the requirement
+     * @return true if the requirement is met
+     */
+    public static boolean hasPermissions(Permissible permissible, PermissionRequirement requirement) {
+        PermissionCache cache = permissionCache;
+        if (cache != null)
+            return cache.isSatisfiedBy(permissible, requirement);
+        return requirement.isSatisfiedBy(permissible);
+    }
+
+    /**
+     * Require a permissible to satisfy a requirement. Uses the installed
+     * PermissionCache, if any.
+     * 
+     * @param permissible the permissible
+     * @param requirement the requirement
+     */
+    public static void requirePermissions(Permissible permissible, PermissionRequirement requirement) {
+        if (!hasPermissions(permissible, requirement))
+            throw requirement.newPermissionException();
+    }
+
+    /**
+     * Test many permissibles against a requirement in a single pass. Uses the
+     * installed PermissionCache, if any.
+     * 
+     * @param permissibles the permissibles
+     * @param requirement the requirement
+     * @return bit <i>i</i> is set if the <i>i</i>th permissible meets the requirement
+     */
+    public static BitSet hasPermissions(List<? extends Permissible> permissibles, PermissionRequirement requirement) {
+        return hasPermissionsInRange(permissibles, requirement, 0, permissibles.size());
+    }
+
+    /**
+     * Test many permissibles against a requirement, splitting the work
+     * across the given executor. Only use this if the permissibles may be
+     * safely checked off the main thread.
+     * 
+     * @param permissibles the permissibles
+     * @param requirement the requirement
+     * @param executor the executor to run checks on
+     * @return bit <i>i</i> is set if the <i>i</i>th permissible meets the requirement
+     * @throws InterruptedException if interrupted while waiting for checks to finish
+     */
+    public static BitSet hasPermissions(final List<? extends Permissible> permissibles, final PermissionRequirement requirement, ExecutorService executor) throws InterruptedException {
+        int size = permissibles.size();
+        int chunks = Math.min(Runtime.getRuntime().availableProcessors(), (size + MIN_PARALLEL_CHUNK - 1) / MIN_PARALLEL_CHUNK);
+        if (chunks <= 1)
+            return hasPermissions(permissibles, requirement); // not worth it
+
+        List<Callable<BitSet>> tasks = new ArrayList<Callable<BitSet>>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final int from = (int)((long)size * i / chunks);
+            final int to = (int)((long)size * (i + 1) / chunks);
+            tasks.add(new Callable<BitSet>() {
+                @Override
+                public BitSet call() throws Exception {
+                    return hasPermissionsInRange(permissibles, requirement, from, to);
+                }
+            });
+        }
+
+        BitSet result = new BitSet(size);
+        for (Future<BitSet> future : executor.invokeAll(tasks)) {
+            try {
+                result.or(future.get());
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException)e.getCause();
+                else if (e.getCause() instanceof Error)
+                    throw (Error)e.getCause();
+                throw new AssertionError(e.getCause()); // checks throw nothing checked
+            }
+        }
+        return result;
+    }
+
+    // Test permissibles [from, to) against a requirement
+    private static BitSet hasPermissionsInRange(List<? extends Permissible> permissibles, PermissionRequirement requirement, int from, int to) {
+        BitSet result = new BitSet(to);
+        if (requirement.isEmpty()) {
+            result.set(from, to);
+            return result;
+        }
+        // Walk by index if possible, avoiding an iterator per chunk
+        if (permissibles instanceof RandomAccess) {
+            for (int i = from; i < to; i++) {
+                if (hasPermissions(permissibles.get(i), requirement))
+                    result.set(i);
+            }
+        }
+        else {
+            int i = from;
+            for (Iterator<? extends Permissible> it = permissibles.listIterator(from); i < to; i++) {
+                if (hasPermissions(it.next(), requirement))
+                    result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Select the permissibles that meet a requirement. Uses the installed
+     * PermissionCache, if any.
+     * 
+     * @param permissibles the permissibles
+     * @param requirement the requirement
+     * @return the permissibles meeting the requirement, in iteration order
+     */
+    public static <P extends Permissible> List<P> filterPermissibles(Iterable<P> permissibles, PermissionRequirement requirement) {
+        List<P> result = new ArrayList<P>();
+        for (P permissible : permissibles) {
+            if (hasPermissions(permissible, requirement))
+                result.add(permissible);
+        }
+        return result;
+    }
+
     /**
      * Test if a permissible has multiple permissions.
      * 
@@ -194,19 +353,21 @@ public class PermissionUtils {
         if (permissionException == null)
             throw new IllegalArgumentException("permissionException cannot be null");
 
+        List<String> lines = new ArrayList<String>();
         if (permissionException.getPermissions().size() == 1) {
-            sendMessage(sender, ChatColor.RED + "You need the following permission to do this:");
-            sendMessage(sender, ChatColor.DARK_GREEN + "- " + permissionException.getPermissions().get(0));
+            lines.add(ChatColor.RED + "You need the following permission to do this:");
+            lines.add(ChatColor.DARK_GREEN + "- " + permissionException.getPermissions().get(0));
         }
         else {
-            sendMessage(sender, ChatColor.RED + "You need %s of the following permissions to do this:",
-                    permissionException.isAll() ? "all" : "one");
+            lines.add(String.format(ChatColor.RED + "You need %s of the following permissions to do this:",
+                    permissionException.isAll() ? "all" : "one"));
             if (!permissionException.isAll() && permissionException.isCheckNegations())
-                sendMessage(sender, ChatColor.RED + "(none may be explicitly false)");
+                lines.add(ChatColor.RED + "(none may be explicitly false)");
             for (String permission : permissionException.getPermissions()) {
-                sendMessage(sender, ChatColor.DARK_GREEN + "- " + permission);
+                lines.add(ChatColor.DARK_GREEN + "- " + permission);
             }
         }
+        sender.sendMessage(lines.toArray(new String[lines.size()]));
     }
 
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of message colorizing and formatting.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ToHMessageUtilsBenchmark {
+
+    private final String template = "{YELLOW}Player {AQUA}%s{YELLOW} added to group {DARK_GREEN}%s{YELLOW} ({{%d}})";
+
+    private final MessageTemplate messageTemplate = MessageTemplate.compile(template);
+
+    @Benchmark
+    public String colorize() {
+        return ToHMessageUtils.colorize(template);
+    }
+
+    @Benchmark
+    public String colorizeAndFormat() {
+        return String.format(ToHMessageUtils.colorize(template), "ZerothAngel", "admin", 3);
+    }
+
+    @Benchmark
+    public String messageTemplate() {
+        return messageTemplate.format("ZerothAngel", "admin", 3);
+    }
+
+}
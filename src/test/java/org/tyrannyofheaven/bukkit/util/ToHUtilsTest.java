@@ -16,17 +16,41 @@
 package org.tyrannyofheaven.bukkit.util;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 import static org.tyrannyofheaven.bukkit.util.ToHStringUtils.delimitedString;
 import static org.tyrannyofheaven.bukkit.util.ToHMessageUtils.colorize;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import org.bukkit.ChatColor;
+import org.bukkit.Server;
+import org.bukkit.conversations.Conversation;
+import org.bukkit.conversations.ConversationContext;
+import org.bukkit.conversations.Prompt;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.plugin.PluginManager;
 import org.junit.Test;
+import org.tyrannyofheaven.bukkit.util.ToHLoggingUtils.OverflowPolicy;
 
 public class ToHUtilsTest {
 
@@ -128,6 +152,373 @@ public class ToHUtilsTest {
         fail();
     }
 
+    @Test
+    public void testColorizeCache() {
+        ToHMessageUtils.setColorizeCacheSize(2);
+        try {
+            long hits = ToHMessageUtils.getColorizeCacheHits();
+            long misses = ToHMessageUtils.getColorizeCacheMisses();
+
+            assertEquals(ChatColor.RED + "one", colorize("{RED}one"));
+            assertEquals(ChatColor.RED + "one", colorize("{RED}one"));
+            assertEquals(hits + 1, ToHMessageUtils.getColorizeCacheHits());
+            assertEquals(misses + 1, ToHMessageUtils.getColorizeCacheMisses());
+
+            // Stays within bounds
+            colorize("{RED}two");
+            colorize("{RED}three");
+            colorize("{RED}four");
+            assertTrue(ToHMessageUtils.getColorizeCacheSize() <= 2);
+            assertEquals(misses + 4, ToHMessageUtils.getColorizeCacheMisses());
+
+            // Disabled
+            ToHMessageUtils.setColorizeCacheSize(0);
+            assertEquals(0, ToHMessageUtils.getColorizeCacheSize());
+            colorize("{RED}two");
+            assertEquals(ChatColor.RED + "two", colorize("{RED}two"));
+            assertEquals(hits + 1, ToHMessageUtils.getColorizeCacheHits());
+        }
+        finally {
+            ToHMessageUtils.setColorizeCacheSize(1024);
+        }
+    }
+
+    @Test
+    public void testMessageTemplate() {
+        String[] templates = new String[] { "", "hello", "{GRAY}%s%s%s%s", "{{%2$s}} %1$d%%%n", "%2$s %1$s %<s", "%5d|%-5s|%.2f", "%x %4$c %5$b %2$S" };
+        Object[] args = new Object[] { 42, "foo", 1.5, 'c', true };
+        for (String template : templates) {
+            assertEquals(String.format(colorize(template), args), MessageTemplate.compile(template).format(args));
+        }
+        assertEquals("null null", MessageTemplate.compile("%s %d").format((Object)null, null));
+
+        try {
+            MessageTemplate.compile("100%");
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            MessageTemplate.compile("%s %s").format("one");
+            fail();
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLinePager() {
+        final int[] pulled = new int[1];
+        Iterator<String> source = new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return pulled[0] < 25;
+            }
+            @Override
+            public String next() {
+                return "line " + pulled[0]++;
+            }
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+
+        LinePager pager = new LinePager(source, 55, 10);
+        assertEquals(Arrays.asList("line 0", "line 1", "line 2", "line 3", "line 4", "line 5", "line 6", "line 7", "line 8", "line 9"), pager.getPage(0));
+        assertEquals(10, pulled[0]); // nothing beyond the first page yet
+        assertEquals(-1, pager.getPageCount());
+
+        // Random access
+        assertEquals(Arrays.asList("line 20", "line 21", "line 22", "line 23", "line 24"), pager.getPage(2));
+        assertEquals("line 10", pager.getPage(1).get(0));
+        assertEquals(3, pager.getPageCount());
+        assertFalse(pager.hasPage(3));
+    }
+
+    @Test
+    public void testPagerPrompt() {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 7; i++)
+            lines.add("line " + i);
+
+        // Two conversations sharing the prompt
+        ConversationContext first = new ConversationContext(null, null, new HashMap<Object, Object>());
+        PagerPrompt.initialize(first, new LinePager(lines.iterator(), 55, 3));
+        ConversationContext second = new ConversationContext(null, null, new HashMap<Object, Object>());
+        PagerPrompt.initialize(second, new LinePager(lines.iterator(), 55, 3));
+
+        assertEquals(Arrays.asList("line 0", "line 1", "line 2"), runPager(first));
+        assertEquals(Arrays.asList("line 0", "line 1", "line 2"), runPager(second));
+        assertEquals(Arrays.asList("line 0", "line 1", "line 2"), lines.subList(0, 3)); // untouched
+
+        // Jump to the last page
+        assertSame(PagerPrompt.INSTANCE, PagerPrompt.INSTANCE.acceptInput(first, "3"));
+        assertEquals(Arrays.asList("line 6"), runPager(first));
+
+        // Next page
+        assertSame(PagerPrompt.INSTANCE, PagerPrompt.INSTANCE.acceptInput(second, "y"));
+        assertEquals(Arrays.asList("line 3", "line 4", "line 5"), runPager(second));
+    }
+
+    @Test
+    public void testDisplayLinesCopiesList() {
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < 25; i++)
+            lines.add("line " + i);
+
+        final Conversation[] begun = new Conversation[1];
+        Player player = (Player)Proxy.newProxyInstance(Player.class.getClassLoader(), new Class<?>[] { Player.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if ("beginConversation".equals(method.getName())) {
+                    begun[0] = (Conversation)args[0];
+                    return true;
+                }
+                else if (method.getReturnType() == Void.TYPE)
+                    return null;
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        ToHMessageUtils.displayLines(newStubPlugin(new CapturingHandler(false)), player, lines);
+        assertTrue(begun[0] != null);
+
+        // Caller reuses its list while the pager is still running
+        lines.clear();
+        lines.add("changed");
+
+        ConversationContext context = begun[0].getContext();
+        assertEquals("line 0", runPager(context).get(0));
+        assertSame(PagerPrompt.INSTANCE, PagerPrompt.INSTANCE.acceptInput(context, "3"));
+        assertEquals(Arrays.asList("line 18", "line 19", "line 20", "line 21", "line 22", "line 23", "line 24"), runPager(context));
+    }
+
+    // Output lines as a Conversation would, up to the next page prompt or the end
+    private List<String> runPager(ConversationContext context) {
+        List<String> output = new ArrayList<String>();
+        Prompt prompt = PagerPrompt.INSTANCE;
+        while (prompt == PagerPrompt.INSTANCE) {
+            String text = prompt.getPromptText(context);
+            if (prompt.blocksForInput(context))
+                break;
+            output.add(text);
+            prompt = prompt.acceptInput(context, null);
+        }
+        return output;
+    }
+
+    @Test
+    public void testAsyncLoggingBlock() throws InterruptedException {
+        CapturingHandler handler = new CapturingHandler(true);
+        final Plugin plugin = newStubPlugin(handler);
+        ToHLoggingUtils.startAsyncLogging(plugin, 1, OverflowPolicy.BLOCK);
+        try {
+            ToHLoggingUtils.log(plugin, "one");
+            assertTrue(handler.writing.await(5L, TimeUnit.SECONDS)); // writer is now stuck on "one"
+            ToHLoggingUtils.log(plugin, "two"); // fills the queue
+
+            Thread caller = new Thread() {
+                @Override
+                public void run() {
+                    ToHLoggingUtils.log(plugin, "three");
+                }
+            };
+            caller.start();
+            caller.join(200L);
+            assertTrue(caller.isAlive()); // waiting for room
+
+            handler.release.countDown();
+            caller.join(5000L);
+            assertFalse(caller.isAlive());
+        }
+        finally {
+            handler.release.countDown();
+            ToHLoggingUtils.stopAsyncLogging(plugin);
+        }
+        assertEquals(Arrays.asList("one", "two", "three"), handler.getMessages());
+    }
+
+    @Test
+    public void testAsyncLoggingDiscard() throws InterruptedException {
+        assertEquals(Arrays.asList("one", "1 log message(s) discarded (queue full)", "two"), logWithFullQueue(OverflowPolicy.DISCARD));
+    }
+
+    @Test
+    public void testAsyncLoggingDiscardOldest() throws InterruptedException {
+        assertEquals(Arrays.asList("one", "1 log message(s) discarded (queue full)", "three"), logWithFullQueue(OverflowPolicy.DISCARD_OLDEST));
+    }
+
+    @Test
+    public void testAsyncLoggingCallerRuns() throws InterruptedException {
+        // "three" is written by the caller while the writer is stuck on "one"
+        assertEquals(Arrays.asList("one", "three", "two"), logWithFullQueue(OverflowPolicy.CALLER_RUNS));
+    }
+
+    // Log "one", "two" and "three" with a queue of 1 while the writer is
+    // still busy with "one"
+    private List<String> logWithFullQueue(OverflowPolicy overflowPolicy) throws InterruptedException {
+        CapturingHandler handler = new CapturingHandler(true);
+        Plugin plugin = newStubPlugin(handler);
+        ToHLoggingUtils.startAsyncLogging(plugin, 1, overflowPolicy);
+        try {
+            ToHLoggingUtils.log(plugin, "one");
+            assertTrue(handler.writing.await(5L, TimeUnit.SECONDS));
+            ToHLoggingUtils.log(plugin, "two");
+            ToHLoggingUtils.log(plugin, "three");
+        }
+        finally {
+            handler.release.countDown();
+            ToHLoggingUtils.stopAsyncLogging(plugin);
+        }
+        return handler.getMessages();
+    }
+
+    @Test
+    public void testAsyncLoggingFlushOnStop() throws InterruptedException {
+        CapturingHandler handler = new CapturingHandler(true);
+        Plugin plugin = newStubPlugin(handler);
+        ToHLoggingUtils.startAsyncLogging(plugin, 10, OverflowPolicy.BLOCK);
+        long loggedBy;
+        try {
+            ToHLoggingUtils.log(plugin, "one");
+            assertTrue(handler.writing.await(5L, TimeUnit.SECONDS));
+            ToHLoggingUtils.log(plugin, "two");
+            ToHLoggingUtils.log(plugin, "three");
+            assertEquals(Arrays.asList("one"), handler.getMessages());
+            loggedBy = System.currentTimeMillis();
+            Thread.sleep(50L);
+        }
+        finally {
+            handler.release.countDown();
+            ToHLoggingUtils.stopAsyncLogging(plugin);
+        }
+        // Everything queued is written by the time stop returns
+        assertEquals(Arrays.asList("one", "two", "three"), handler.getMessages());
+        // ...with the time it was logged, not written
+        for (LogRecord record : handler.records)
+            assertTrue(record.getMillis() <= loggedBy);
+
+        // Back to writing immediately
+        ToHLoggingUtils.log(plugin, "four");
+        assertEquals(Arrays.asList("one", "two", "three", "four"), handler.getMessages());
+    }
+
+    @Test
+    public void testAsyncLoggingBadMessage() throws InterruptedException {
+        CapturingHandler handler = new CapturingHandler(false);
+        Plugin plugin = newStubPlugin(handler);
+        ToHLoggingUtils.startAsyncLogging(plugin, 10, OverflowPolicy.BLOCK);
+        try {
+            ToHLoggingUtils.log(plugin, "%d", "not a number");
+            ToHLoggingUtils.log(plugin, "after");
+        }
+        finally {
+            ToHLoggingUtils.stopAsyncLogging(plugin);
+        }
+        // Reported, and the writer carried on
+        assertEquals(Arrays.asList("Failed to write log message: %d", "after"), handler.getMessages());
+        assertEquals(Level.SEVERE, handler.records.get(0).getLevel());
+        assertTrue(handler.records.get(0).getThrown() instanceof IllegalArgumentException);
+    }
+
+    // Plugin with just enough to log and register listeners
+    private static Plugin newStubPlugin(Handler handler) {
+        Logger logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(handler);
+
+        Map<String, Object> pluginManagerMethods = Collections.emptyMap();
+        PluginManager pluginManager = stub(PluginManager.class, pluginManagerMethods);
+
+        Map<String, Object> serverMethods = new HashMap<String, Object>();
+        serverMethods.put("getPluginManager", pluginManager);
+        Server server = stub(Server.class, serverMethods);
+
+        Map<String, Object> pluginMethods = new HashMap<String, Object>();
+        pluginMethods.put("getLogger", logger);
+        pluginMethods.put("getName", "Test");
+        pluginMethods.put("getServer", server);
+        pluginMethods.put("toString", "Test");
+        return stub(Plugin.class, pluginMethods);
+    }
+
+    // Interface stub returning canned values by method name. Void methods do
+    // nothing, anything else unexpected fails.
+    private static <T> T stub(Class<T> clazz, final Map<String, Object> methods) {
+        return clazz.cast(Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if ("hashCode".equals(name) && method.getParameterTypes().length == 0)
+                    return System.identityHashCode(proxy);
+                else if ("equals".equals(name) && method.getParameterTypes().length == 1)
+                    return proxy == args[0];
+                else if (methods.containsKey(name))
+                    return methods.get(name);
+                else if (method.getReturnType() == Void.TYPE)
+                    return null;
+                throw new UnsupportedOperationException(name);
+            }
+        }));
+    }
+
+    // Captures log records, optionally holding up the first one until released
+    private static class CapturingHandler extends Handler {
+
+        private final List<LogRecord> records = Collections.synchronizedList(new ArrayList<LogRecord>());
+
+        private final CountDownLatch writing = new CountDownLatch(1);
+
+        private final CountDownLatch release;
+
+        private CapturingHandler(boolean holdFirst) {
+            release = new CountDownLatch(holdFirst ? 1 : 0);
+        }
+
+        @Override
+        public void publish(LogRecord record) {
+            records.add(record);
+            if (writing.getCount() > 0L) {
+                writing.countDown();
+                try {
+                    release.await(5L, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private List<String> getMessages() {
+            List<String> messages = new ArrayList<String>();
+            synchronized (records) {
+                for (LogRecord record : records)
+                    messages.add(record.getMessage());
+            }
+            return messages;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+    @Test
+    public void testSplitLines() {
+        String[] inputs = new String[] { "", "foo", "foo\nbar", "\n", "foo\n\n", "\n\nfoo\n\nbar\n", "foo\nbar\n" };
+        for (String input : inputs) {
+            assertEquals(Arrays.asList(input.split("\n")), Arrays.asList(ToHMessageUtils.splitLines(input)));
+        }
+    }
+
     @Test
     public void testQuoteArg() {
         assertEquals("foo", ToHStringUtils.quoteArgForCommand("foo"));
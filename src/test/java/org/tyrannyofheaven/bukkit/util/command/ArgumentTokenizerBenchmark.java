@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.tyrannyofheaven.bukkit.util.ToHStringUtils;
+
+/**
+ * Quote-aware tokenizing of Bukkit's arguments, single-pass versus joining
+ * and re-splitting. Run with <code>-prof gc</code> to compare allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ArgumentTokenizerBenchmark {
+
+    @Param({ "plain", "quoted" })
+    public String input;
+
+    private String[] args;
+
+    @Setup
+    public void setUp() {
+        if ("plain".equals(input))
+            args = "group ZerothAngel set -w world_nether build.place true".split(" ");
+        else
+            args = "group \"Zeroth Angel\" set -w \"world nether\" build\\\\place \\\"true\\\"".split(" ");
+    }
+
+    @Benchmark
+    public String[] tokenizer() {
+        return new ArgumentTokenizer(args, args.length).getTokens(0);
+    }
+
+    @Benchmark
+    public String[] joinAndSplit() {
+        // How ToHCommandExecutor used to tokenize
+        return split(ToHStringUtils.delimitedString(" ", (Object[])args));
+    }
+
+    private static String[] split(String input) {
+        List<String> result = new ArrayList<String>();
+
+        int state = 0; // 0 normal, 1 escaped, 2 quoted, 3 quoted+escaped
+        StringBuilder current = new StringBuilder();
+
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+
+            switch (state) {
+            case 0:
+                if (c == '\\') {
+                    state = 1;
+                }
+                else if (c == '"') {
+                    state = 2;
+                }
+                else {
+                    if (current.length() == 0) {
+                        if (!Character.isWhitespace(c))
+                            current.append(c);
+                    }
+                    else if (Character.isWhitespace(c)) {
+                        result.add(current.toString());
+                        current = new StringBuilder();
+                    }
+                    else {
+                        current.append(c);
+                    }
+                }
+                break;
+            case 1:
+            case 3:
+                if (c == '\\' || c == '"') {
+                    current.append(c);
+                }
+                else {
+                    current.append('\\');
+                    current.append(c);
+                }
+                state = state == 1 ? 0 : 2;
+                break;
+            default:
+                if (c == '\\') {
+                    state = 3;
+                }
+                else if (c == '"') {
+                    state = 0;
+                }
+                else {
+                    current.append(c);
+                }
+                break;
+            }
+        }
+
+        if (current.length() > 0)
+            result.add(current.toString());
+
+        return result.toArray(new String[result.size()]);
+    }
+
+}
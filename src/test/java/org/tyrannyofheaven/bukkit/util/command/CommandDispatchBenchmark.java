@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of the command hot path using {@link MyHandler}: parsing,
+ * dispatch, sub-command chains, tab completion and usage rendering. Run
+ * with <code>-prof gc</code> for allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CommandDispatchBenchmark {
+
+    private final Map<String, TypeCompleter> typeCompleterRegistry = Collections.<String, TypeCompleter>singletonMap("constant", new ConstantTypeCompleter());
+
+    private final UsageOptions usageOptions = new DefaultUsageOptions();
+
+    private StubCommandSender sender;
+
+    private HandlerExecutor<MyPlugin> handlerExecutor;
+
+    private CommandMetaData garply;
+
+    private String[] garplyArgs;
+
+    private String[] subCommandArgs;
+
+    private String[] flagCompletionArgs;
+
+    private String[] subCommandCompletionArgs;
+
+    @Setup
+    public void setUp() {
+        sender = new StubCommandSender("foo.secret");
+        handlerExecutor = new HandlerExecutor<MyPlugin>(new MyPlugin(), usageOptions, new MyHandler());
+        garply = HandlerMetaDataRegistry.getHandlerMetaData(MyHandler.class, MyPlugin.class).getCommandTrie().get("garply");
+
+        garplyArgs = new String[] { "-f", "--option", "value", "-t", "test" };
+        subCommandArgs = new String[] { "ZerothAngel", "greet", "-o", "option" };
+        flagCompletionArgs = new String[] { "-f", "-" };
+        subCommandCompletionArgs = new String[] { "ZerothAngel", "greet", "-" };
+    }
+
+    @Benchmark
+    public int parse() {
+        ParsedArgs pa = ParsedArgs.acquire();
+        try {
+            pa.parse(garply, garplyArgs);
+            return pa.getRestLength();
+        }
+        finally {
+            pa.release();
+        }
+    }
+
+    @Benchmark
+    public int dispatch() throws Throwable {
+        handlerExecutor.execute(sender, "garply", "garply", garplyArgs);
+        return sender.messageCount;
+    }
+
+    @Benchmark
+    public int dispatchWithPermission() throws Throwable {
+        handlerExecutor.execute(sender, "secret", "secret", new String[0]);
+        return sender.messageCount;
+    }
+
+    @Benchmark
+    public int dispatchSubCommand() throws Throwable {
+        handlerExecutor.execute(sender, "bar", "bar", subCommandArgs);
+        return sender.messageCount;
+    }
+
+    @Benchmark
+    public List<String> completeFlag() throws Throwable {
+        return handlerExecutor.getTabCompletions(sender, "garply", "garply", flagCompletionArgs, null, null, typeCompleterRegistry);
+    }
+
+    @Benchmark
+    public List<String> completeSubCommand() throws Throwable {
+        return handlerExecutor.getTabCompletions(sender, "bar", "bar", subCommandCompletionArgs, null, null, typeCompleterRegistry);
+    }
+
+    @Benchmark
+    public String usage() {
+        InvocationChain invChain = new InvocationChain();
+        handlerExecutor.fillInvocationChain(invChain, "garply");
+        return invChain.getUsageString(usageOptions);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares reflective and generated handler method invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandInvokerBenchmark {
+
+    private CheckHandler handler;
+
+    private Method method;
+
+    private Object[] methodArgs;
+
+    private CommandInvoker reflectiveInvoker;
+
+    private CommandInvoker generatedInvoker;
+
+    private HandlerExecutor<MyPlugin> handlerExecutor;
+
+    private String[] commandArgs;
+
+    @Setup
+    public void setUp() throws Exception {
+        handler = new CheckHandler();
+        method = CheckHandler.class.getMethod("check", Boolean.TYPE, String.class, String.class, Integer.class);
+        methodArgs = new Object[] { Boolean.TRUE, "ZerothAngel", "foo.bar", 3 };
+
+        reflectiveInvoker = new ReflectiveCommandInvoker(CheckHandler.class.getMethod(method.getName(), method.getParameterTypes()));
+        generatedInvoker = InvokerGenerator.createInvoker(method);
+        if (generatedInvoker instanceof ReflectiveCommandInvoker)
+            throw new AssertionError("Invoker was not generated");
+
+        handlerExecutor = new HandlerExecutor<MyPlugin>(new MyPlugin(), handler);
+        commandArgs = new String[] { "-v", "ZerothAngel", "foo.bar", "3" };
+    }
+
+    @Benchmark
+    public Object reflection() throws Throwable {
+        // What HandlerExecutor used to do
+        try {
+            return method.invoke(handler, methodArgs);
+        }
+        catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Benchmark
+    public Object reflectiveInvoker() throws Throwable {
+        return reflectiveInvoker.invoke(handler, methodArgs);
+    }
+
+    @Benchmark
+    public Object generatedInvoker() throws Throwable {
+        return generatedInvoker.invoke(handler, methodArgs);
+    }
+
+    @Benchmark
+    public int dispatch() throws Throwable {
+        handlerExecutor.execute(null, "check", "check", commandArgs);
+        return handler.count;
+    }
+
+    public static class CheckHandler {
+
+        int count;
+
+        @Command("check")
+        public void check(@Option("-v") boolean verbose, @Option("player") String player, @Option("permission") String permission, @Option(value="depth", optional=true) Integer depth) {
+            count++;
+        }
+
+    }
+
+}
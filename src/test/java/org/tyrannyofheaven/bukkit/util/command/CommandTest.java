@@ -15,12 +15,17 @@
  */
 package org.tyrannyofheaven.bukkit.util.command;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import junit.framework.Assert;
 
@@ -33,7 +38,10 @@ import org.bukkit.plugin.Plugin;
 import org.bukkit.util.StringUtil;
 import org.junit.Before;
 import org.junit.Test;
+import org.tyrannyofheaven.bukkit.util.permissions.PermissionCache;
 import org.tyrannyofheaven.bukkit.util.permissions.PermissionException;
+import org.tyrannyofheaven.bukkit.util.permissions.PermissionRequirement;
+import org.tyrannyofheaven.bukkit.util.permissions.PermissionUtils;
 
 public class CommandTest {
 
@@ -113,7 +121,10 @@ public class CommandTest {
                 return null;
             }
             @Override
-            public void sendMessage(String[] arg0) {
+            public void sendMessage(String[] messages) {
+                for (String message : messages) {
+                    sendMessage(message);
+                }
             }
         };
         he = new HandlerExecutor<MyPlugin>(plugin, new MyHandler());
@@ -345,6 +356,10 @@ public class CommandTest {
         testCompletions(he.getTabCompletions(dummySender, "bar", "bar", new String[] { "foo", "gr" }, null, null, typeCompleterRegistry),
                 "greet");
         testCompletions(he.getTabCompletions(dummySender, "bar", "bar", new String[] { "foo", "b" }, null, null, typeCompleterRegistry));
+        // Without @SubCommandHandler, the handler method is invoked (and throws)
+        boolean good = false;
+        try { he.getTabCompletions(dummySender, "foo", "foo", new String[] { "H" }, null, null, typeCompleterRegistry); } catch (ParseException e) { good = true; }
+        Assert.assertTrue(good);
         
         // Sub-command
         testCompletions(he.getTabCompletions(dummySender, "bar", "bar", new String[] { "foo", "greet", "" }, null, null, typeCompleterRegistry));
@@ -365,6 +380,389 @@ public class CommandTest {
                 "ZerothAngel");
     }
 
+    @Test
+    public void testInvokers() throws Throwable {
+        // Public handler methods get generated invokers
+        CommandInvoker invoker = InvokerGenerator.createInvoker(MyHandler.class.getMethod("foo", String[].class));
+        Assert.assertFalse(invoker instanceof ReflectiveCommandInvoker);
+        Assert.assertNotNull(invoker.invoke(new MyHandler(), new Object[] { new String[] { "hello" } }));
+
+        // Exceptions are not wrapped
+        boolean good = false;
+        try { invoker.invoke(new MyHandler(), new Object[] { new String[0] }); } catch (ParseException e) { good = true; }
+        Assert.assertTrue(good);
+
+        // Handler classes that can't be reached fall back to reflection
+        invoker = InvokerGenerator.createInvoker(PrivateHandler.class.getMethod("hello", CommandSender.class));
+        Assert.assertTrue(invoker instanceof ReflectiveCommandInvoker);
+        invoker.invoke(new PrivateHandler(), new Object[] { dummySender });
+        Assert.assertEquals("Hello World!\n", out.toString());
+    }
+
+    @Test
+    public void testTypeConverters() throws Throwable {
+        TypeConverters.registerTypeConverter(UUID.class, new TypeConverter<UUID>() {
+            @Override
+            public UUID convert(String text) {
+                return UUID.fromString(text);
+            }
+        });
+        HandlerExecutor<MyPlugin> he = new HandlerExecutor<MyPlugin>(new MyPlugin(), new ConverterHandler());
+
+        he.execute(dummySender, "uuid", "uuid", new String[] { "-c", "3", "00000000-0000-0000-0000-00000000002a" });
+        Assert.assertEquals("3 42\n", out.toString()); out.delete(0, out.length());
+
+        boolean good = false;
+        try { he.execute(dummySender, "uuid", "uuid", new String[] { "-c", "three", "00000000-0000-0000-0000-00000000002a" }); } catch (ParseException e) { good = true; }
+        Assert.assertTrue(good);
+
+        good = false;
+        try { he.execute(dummySender, "uuid", "uuid", new String[] { "garply" }); } catch (ParseException e) { good = true; }
+        Assert.assertTrue(good);
+    }
+
+    @Test
+    public void testCommandTrie() throws Throwable {
+        CommandMetaData foo = new CommandMetaData(null, MyHandler.class.getMethod("foo", String[].class), null, null, false, false, null, false, null, null);
+        CommandMetaData hello = new CommandMetaData(null, MyHandler.class.getMethod("hello", CommandSender.class, Boolean.TYPE), null, null, false, false, null, false, null, null);
+        CommandTrie trie = new CommandTrie();
+        Assert.assertNull(trie.put("foo", foo));
+        Assert.assertNull(trie.put("Foo", hello));
+        Assert.assertNull(trie.put("fob", foo));
+        Assert.assertNull(trie.put("hello", hello));
+        Assert.assertSame(foo, trie.put("foo", foo));
+        Assert.assertEquals(4, trie.size());
+
+        // Exact lookup is case-sensitive
+        Assert.assertSame(foo, trie.get("foo"));
+        Assert.assertSame(hello, trie.get("Foo"));
+        Assert.assertNull(trie.get("FOO"));
+        Assert.assertNull(trie.get("fo"));
+
+        // Prefix lookup is not
+        Assert.assertEquals(Arrays.asList("fob", "foo", "Foo"), trie.getPrefixMatches("FO", new ArrayList<String>()));
+        Assert.assertEquals(4, trie.getPrefixMatches("", new ArrayList<String>()).size());
+        Assert.assertTrue(trie.getPrefixMatches("x", new ArrayList<String>()).isEmpty());
+    }
+
+    @Test
+    public void testHandlerExecutorCache() throws Throwable {
+        CountingHandler first = new CountingHandler();
+        CountingHandler second = new CountingHandler();
+
+        HandlerExecutor<MyPlugin> firstHe = he.handlerExecutorFor(first);
+        Assert.assertSame(firstHe, he.handlerExecutorFor(first));
+        HandlerExecutor<MyPlugin> secondHe = he.handlerExecutorFor(second);
+        Assert.assertNotSame(firstHe, secondHe);
+
+        // Each is bound to its own instance
+        secondHe.execute(dummySender, "count", "count", new String[0]);
+        Assert.assertEquals(0, first.count);
+        Assert.assertEquals(1, second.count);
+
+        // Class metadata is shared between executors
+        HandlerExecutor<MyPlugin> otherHe = new HandlerExecutor<MyPlugin>(new MyPlugin(), new MyHandler());
+        Assert.assertNotSame(he, otherHe);
+        Assert.assertSame(he.getHandlerMetaData(MyHandler.class), otherHe.getHandlerMetaData(MyHandler.class));
+        Assert.assertSame(HandlerMetaDataRegistry.getHandlerMetaData(MyHandler.class, MyPlugin.class), otherHe.getHandlerMetaData(MyHandler.class));
+
+        // Another plugin class gets its own scan, without evicting the first
+        HandlerMetaData forOther = HandlerMetaDataRegistry.getHandlerMetaData(MyHandler.class, Plugin.class);
+        Assert.assertNotSame(he.getHandlerMetaData(MyHandler.class), forOther);
+        Assert.assertSame(forOther, HandlerMetaDataRegistry.getHandlerMetaData(MyHandler.class, Plugin.class));
+        Assert.assertSame(he.getHandlerMetaData(MyHandler.class), HandlerMetaDataRegistry.getHandlerMetaData(MyHandler.class, MyPlugin.class));
+
+        // Bound copies share everything but the handler
+        CommandMetaData cmd = new CommandMetaData(null, CountingHandler.class.getMethod("count"), null, null, false, false, null, false, null, null);
+        CommandMetaData bound = cmd.bind(first);
+        Assert.assertSame(first, bound.getHandler());
+        Assert.assertSame(cmd.getInvoker(), bound.getInvoker());
+    }
+
+    @Test
+    public void testSubCommandHandler() throws Throwable {
+        HandlerExecutor<MyPlugin> he = new HandlerExecutor<MyPlugin>(new MyPlugin(), new DeclaredHandler());
+        Map<String, TypeCompleter> typeCompleterRegistry = Collections.emptyMap();
+
+        // Completion walks the declared class without invoking baz()
+        testCompletions(he.getTabCompletions(dummySender, "baz", "baz", new String[] { "" }, null, null, typeCompleterRegistry),
+                "greet");
+        testCompletions(he.getTabCompletions(dummySender, "baz", "baz", new String[] { "greet", "-" }, null, null, typeCompleterRegistry),
+                "--", "-o");
+        testCompletions(he.getTabCompletions(dummySender, "baz", "baz", new String[] { "greet", "-o", "" }, null, null, typeCompleterRegistry),
+                "<option>");
+
+        boolean good = false;
+        try { new HandlerExecutor<MyPlugin>(new MyPlugin(), new BadDeclaredHandler()); } catch (CommandException e) { good = true; }
+        Assert.assertTrue(good);
+    }
+
+    @Test
+    public void testTabCompletionCache() throws Throwable {
+        TabCompletionCache cache = new TabCompletionCache(60000L);
+        String path = TabCompletionCache.getPath("greet", new String[] { "" });
+        Assert.assertNull(cache.get(dummySender, path, 0, ""));
+        cache.put(dummySender, path, 0, "", Arrays.asList("Zeroth", "ZerothAngel", "Alice"));
+
+        // Extending the prefix narrows
+        Assert.assertEquals(Arrays.asList("Zeroth", "ZerothAngel"), cache.get(dummySender, path, 0, "z"));
+        Assert.assertEquals(Arrays.asList("ZerothAngel"), cache.get(dummySender, path, 0, "ZerothA"));
+
+        // Anything else misses
+        Assert.assertNull(cache.get(dummySender, path, 0, "Zero"));
+        Assert.assertNull(cache.get(dummySender, path, 1, "ZerothAn"));
+        Assert.assertNull(cache.get(dummySender, TabCompletionCache.getPath("greet", new String[] { "-o", "" }), 0, "ZerothAn"));
+        cache.put(dummySender, path, 0, "", Arrays.asList("Zeroth"));
+        Assert.assertNull(cache.get(dummySender, path, 0, "-"));
+
+        // Truncated results aren't narrowed
+        cache.put(dummySender, path, 0, "", new TruncatedCompletions(Arrays.asList("Alice")));
+        Assert.assertNull(cache.get(dummySender, path, 0, "A"));
+
+        // Disabled
+        cache.setTtl(0L);
+        cache.put(dummySender, path, 0, "", Arrays.asList("Zeroth"));
+        Assert.assertNull(cache.get(dummySender, path, 0, "Z"));
+    }
+
+    @Test
+    public void testPlayerNameIndex() throws Throwable {
+        PlayerTypeCompleter completer = new PlayerTypeCompleter();
+        completer.addName("ZerothAngel");
+        completer.addName("zed");
+        completer.addName("Alice");
+        completer.addName("Zoe");
+
+        Assert.assertEquals(Arrays.asList("zed", "ZerothAngel"), completer.getPrefixMatches("ZE", Integer.MAX_VALUE));
+        Assert.assertEquals(Arrays.asList("Alice", "zed", "ZerothAngel", "Zoe"), completer.getPrefixMatches("", Integer.MAX_VALUE));
+        Assert.assertEquals(Arrays.asList("zed", "ZerothAngel"), completer.getPrefixMatches("z", 2));
+        Assert.assertTrue(completer.getPrefixMatches("z", 2) instanceof TruncatedCompletions);
+        Assert.assertFalse(completer.getPrefixMatches("z", 3) instanceof TruncatedCompletions);
+        Assert.assertTrue(completer.getPrefixMatches("x", Integer.MAX_VALUE).isEmpty());
+
+        completer.removeName("zed");
+        Assert.assertEquals(Arrays.asList("ZerothAngel"), completer.getPrefixMatches("ze", Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testConstantTypeCompleter() throws Throwable {
+        CompleterSpec spec = CompleterSpec.parse("constant: red Green  blue gray ");
+        Assert.assertEquals("constant", spec.getName());
+        Assert.assertNull(CompleterSpec.parse("player").getArg());
+        Assert.assertNull(CompleterSpec.parse(""));
+
+        ConstantTypeCompleter completer = new ConstantTypeCompleter();
+        Assert.assertSame(completer.getConstants(spec.getArg()), completer.getConstants(spec.getArg()));
+        testCompletions(completer.complete(String.class, spec.getArg(), dummySender, ""), "blue", "gray", "Green", "red");
+        testCompletions(completer.complete(String.class, spec.getArg(), dummySender, "G"), "gray", "Green");
+        testCompletions(completer.complete(String.class, spec.getArg(), dummySender, "green"), "Green");
+        testCompletions(completer.complete(String.class, spec.getArg(), dummySender, "x"));
+    }
+
+    @Test
+    public void testWorldNameSnapshot() throws Throwable {
+        WorldTypeCompleter completer = new WorldTypeCompleter();
+        completer.addName("world");
+        completer.addName("world_nether");
+        completer.addName("World2");
+        completer.addName("creative");
+        completer.addName("world");
+
+        Assert.assertEquals(Arrays.asList("world", "World2", "world_nether"), completer.getPrefixMatches("WORLD"));
+        Assert.assertEquals(4, completer.getPrefixMatches("").size());
+
+        completer.removeName("world_nether");
+        Assert.assertEquals(Arrays.asList("world", "World2"), completer.getPrefixMatches("w"));
+        Assert.assertTrue(completer.getPrefixMatches("x").isEmpty());
+    }
+
+    @Test
+    public void testArgumentTokenizer() throws Throwable {
+        ArgumentTokenizer at = new ArgumentTokenizer(new String[] { "a", "", "b" }, 3);
+        Assert.assertEquals(Arrays.asList("a", "b"), Arrays.asList(at.getTokens(0)));
+
+        at = new ArgumentTokenizer(new String[] { "\"hello", "world\"", "x" }, 3);
+        Assert.assertEquals(Arrays.asList("hello world", "x"), Arrays.asList(at.getTokens(0)));
+
+        at = new ArgumentTokenizer(new String[] { "say", "\\\"hi\\\"", "\"a\\", "b\"" }, 4);
+        Assert.assertEquals(Arrays.asList("say", "\"hi\"", "a\\ b"), Arrays.asList(at.getTokens(0)));
+
+        // Partial, with room for the query
+        at = new ArgumentTokenizer(new String[] { "\"x", "y\"", "query" }, 2);
+        Assert.assertEquals(Arrays.asList("x y", null), Arrays.asList(at.getTokens(1)));
+        Assert.assertEquals(0, new ArgumentTokenizer(new String[] { "", "" }, 2).size());
+    }
+
+    @Test
+    public void testUsageStringCache() throws Throwable {
+        UsageOptions usageOptions = new DefaultUsageOptions();
+        UsageStringCache cache = new UsageStringCache();
+
+        InvocationChain invChain = new InvocationChain();
+        he.fillInvocationChain(invChain, "garply");
+        String usage = cache.getUsageString(invChain, usageOptions, false);
+        Assert.assertEquals(invChain.getUsageString(usageOptions), usage);
+
+        // Same shape, different chain
+        InvocationChain other = new InvocationChain();
+        he.fillInvocationChain(other, "garply");
+        Assert.assertSame(usage, cache.getUsageString(other, usageOptions, false));
+
+        // Different label, UsageOptions or description
+        InvocationChain alias = new InvocationChain();
+        he.fillInvocationChain(alias, "greetings");
+        Assert.assertTrue(cache.getUsageString(alias, usageOptions, false).contains("greetings"));
+        Assert.assertNotSame(usage, cache.getUsageString(invChain, new DefaultUsageOptions(), false));
+        Assert.assertNotSame(usage, cache.getUsageString(invChain, usageOptions, true));
+
+        cache.clear();
+        Assert.assertNotSame(usage, cache.getUsageString(invChain, usageOptions, false));
+    }
+
+    @Test
+    public void testInvocationChainCopy() throws Throwable {
+        UsageOptions usageOptions = new DefaultUsageOptions();
+
+        InvocationChain invChain = new InvocationChain();
+        he.fillInvocationChain(invChain, "foo");
+        InvocationChain copy = invChain.copy();
+        he.handlerExecutorFor(new MyHandler.FooHandler()).fillInvocationChain(copy, "hello");
+        Assert.assertTrue(copy.getUsageString(usageOptions).contains("foo"));
+        Assert.assertTrue(copy.getUsageString(usageOptions).contains("hello"));
+
+        // Original is unaffected by changes to the copy
+        Assert.assertFalse(invChain.getUsageString(usageOptions).contains("hello"));
+        copy.pop();
+        copy.pop();
+        Assert.assertTrue(invChain.getUsageString(usageOptions).contains("foo"));
+        Assert.assertEquals(new InvocationChain().getUsageString(usageOptions), copy.getUsageString(usageOptions));
+
+        boolean good = false;
+        try { copy.pop(); } catch (IllegalStateException e) { good = true; }
+        Assert.assertTrue(good);
+    }
+
+    @Test
+    public void testHelpPermissionMemo() throws Throwable {
+        StubCommandSender sender = new StubCommandSender("foo.secret");
+        InvocationChain invChain = new InvocationChain();
+        String[] lines = he.getHelpBuilder(invChain, null)
+            .withCommandSender(sender)
+            .withHandler(new MyHandler())
+            .forCommand("secret")
+            .forCommand("secret")
+            .forCommand("hello")
+            .getLines();
+        Assert.assertEquals(3, lines.length);
+        Assert.assertEquals(1, sender.permissionCheckCount);
+
+        // Equal requirements are interchangeable
+        Assert.assertEquals(new PermissionRequirement(false, true, "a", "b"), new PermissionRequirement(false, true, "a", "b"));
+        Assert.assertEquals(new PermissionRequirement(true, true, "a"), new PermissionRequirement(true, false, "a"));
+        Assert.assertFalse(new PermissionRequirement(false, false, "a").equals(new PermissionRequirement(true, false, "a")));
+    }
+
+    @Test
+    public void testPermissionCache() throws Throwable {
+        StubCommandSender sender = new StubCommandSender("foo.user");
+        PermissionRequirement requirement = new PermissionRequirement(false, false, "foo.admin", "foo.user");
+        PermissionCache cache = new PermissionCache(60000L);
+
+        Assert.assertTrue(cache.isSatisfiedBy(sender, requirement));
+        Assert.assertEquals(2, sender.permissionCheckCount);
+        Assert.assertTrue(cache.isSatisfiedBy(sender, new PermissionRequirement(false, false, "foo.admin", "foo.user")));
+        Assert.assertEquals(2, sender.permissionCheckCount);
+        Assert.assertFalse(cache.isSatisfiedBy(sender, new PermissionRequirement(true, false, "foo.admin", "foo.user")));
+        Assert.assertEquals(3, sender.permissionCheckCount);
+
+        cache.invalidate(sender);
+        Assert.assertTrue(cache.isSatisfiedBy(sender, requirement));
+        Assert.assertEquals(5, sender.permissionCheckCount);
+
+        // Validated once, up front
+        boolean good = false;
+        try { new PermissionRequirement(true, false, "foo.user", " "); } catch (IllegalArgumentException e) { good = true; }
+        Assert.assertTrue(good);
+
+        good = false;
+        try { requirement.require(new StubCommandSender()); } catch (PermissionException e) { good = !e.isAll() && e.getPermissions().size() == 2; }
+        Assert.assertTrue(good);
+    }
+
+    @Test
+    public void testBulkPermissions() throws Throwable {
+        List<StubCommandSender> senders = new ArrayList<StubCommandSender>();
+        for (int i = 0; i < 300; i++) {
+            senders.add(i % 3 == 0 ? new StubCommandSender("foo.mod") : new StubCommandSender());
+        }
+        PermissionRequirement requirement = new PermissionRequirement(false, false, "foo.admin", "foo.mod");
+
+        BitSet expected = new BitSet();
+        for (int i = 0; i < 300; i += 3) {
+            expected.set(i);
+        }
+        Assert.assertEquals(expected, PermissionUtils.hasPermissions(senders, requirement));
+        Assert.assertEquals(100, PermissionUtils.filterPermissibles(senders, requirement).size());
+        Assert.assertEquals(300, PermissionUtils.hasPermissions(senders, PermissionRequirement.NONE).cardinality());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Assert.assertEquals(expected, PermissionUtils.hasPermissions(senders, requirement, executor));
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    public static class DeclaredHandler {
+
+        @Command("baz")
+        @SubCommandHandler(MyHandler.BarHandler.class)
+        public Object baz(String[] args) {
+            throw new AssertionError("Should not be invoked");
+        }
+
+    }
+
+    public static class BadDeclaredHandler {
+
+        @Command("baz")
+        @SubCommandHandler(MyHandler.BarHandler.class)
+        public MyHandler.FooHandler baz(String[] args) {
+            return null;
+        }
+
+    }
+
+    public static class CountingHandler {
+
+        int count;
+
+        @Command("count")
+        public void count() {
+            count++;
+        }
+
+    }
+
+    public static class ConverterHandler {
+
+        @Command("uuid")
+        public void uuid(CommandSender sender, @Option("-c") int count, @Option("uuid") UUID uuid) {
+            sender.sendMessage(count + " " + uuid.getLeastSignificantBits());
+        }
+
+    }
+
+    private static class PrivateHandler {
+
+        @Command("hello")
+        public void hello(CommandSender sender) {
+            sender.sendMessage("Hello World!");
+        }
+
+    }
+
     private void testCompletions(List<String> actual, String... expected) throws Throwable {
         Set<String> actualSet = new HashSet<String>(actual);
         Set<String> expectedSet = new HashSet<String>(Arrays.asList(expected));
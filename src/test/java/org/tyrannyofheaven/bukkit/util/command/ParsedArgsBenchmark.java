@@ -0,0 +1,125 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Argument parsing for commands with many flags. Run with <code>-prof gc</code>
+ * to compare allocation rates of fresh and pooled ParsedArgs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParsedArgsBenchmark {
+
+    // Number of boolean flags (-a, -b, ... / --flag-a, --flag-b, ...)
+    @Param({ "4", "26" })
+    public int flagCount;
+
+    private CommandMetaData cmd;
+
+    private String[] shortFlagArgs;
+
+    private String[] longFlagArgs;
+
+    private String lastLongFlag;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<MethodParameter> options = new ArrayList<MethodParameter>();
+        StringBuilder combined = new StringBuilder("-");
+        List<String> longFlags = new ArrayList<String>();
+        for (int i = 0; i < flagCount; i++) {
+            char c = (char)('a' + i);
+            options.add(new OptionMetaData(new String[] { "-" + c, "--flag-" + c }, null, Boolean.TYPE, true, false, null, TypeConverters.getTypeConverter(Boolean.TYPE), i));
+            combined.append(c);
+            longFlags.add("--flag-" + c);
+        }
+        // Some flags with values
+        options.add(new OptionMetaData(new String[] { "-V", "--value" }, null, String.class, true, false, null, TypeConverters.getTypeConverter(String.class), flagCount));
+        options.add(new OptionMetaData(new String[] { "-N", "--number" }, null, Integer.TYPE, true, false, null, TypeConverters.getTypeConverter(Integer.TYPE), flagCount + 1));
+        options.add(new OptionMetaData(new String[] { "name" }, null, String.class, false, false, null, TypeConverters.getTypeConverter(String.class), flagCount + 2));
+
+        cmd = new CommandMetaData(this, getClass().getMethod("setUp"), options, null, false, false, null, false, null, null);
+
+        combined.append("VN");
+        shortFlagArgs = new String[] { combined.toString(), "value", "42", "ZerothAngel" };
+
+        longFlags.add("--value");
+        longFlags.add("value");
+        longFlags.add("ZerothAngel");
+        longFlagArgs = longFlags.toArray(new String[longFlags.size()]);
+
+        lastLongFlag = "--flag-" + (char)('a' + flagCount - 1);
+    }
+
+    @Benchmark
+    public ParsedArgs parseCombinedShortFlags() {
+        ParsedArgs pa = new ParsedArgs();
+        pa.parse(cmd, shortFlagArgs);
+        return pa;
+    }
+
+    @Benchmark
+    public int parseCombinedShortFlagsPooled() {
+        ParsedArgs pa = ParsedArgs.acquire();
+        try {
+            pa.parse(cmd, shortFlagArgs);
+            return pa.getRestLength();
+        }
+        finally {
+            pa.release();
+        }
+    }
+
+    @Benchmark
+    public ParsedArgs parseLongFlags() {
+        ParsedArgs pa = new ParsedArgs();
+        pa.parse(cmd, longFlagArgs);
+        return pa;
+    }
+
+    @Benchmark
+    public OptionMetaData indexedLookup() {
+        return cmd.getFlagOption(lastLongFlag);
+    }
+
+    @Benchmark
+    public OptionMetaData linearLookup() {
+        // How ParsedArgs used to find flags
+        for (OptionMetaData omd : cmd.getFlagOptions()) {
+            for (String name : omd.getNames()) {
+                if (lastLongFlag.equals(name)) {
+                    return omd;
+                }
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.util.StringUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Player name completion using the name index versus scanning and sorting
+ * all online players.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PlayerTypeCompleterBenchmark {
+
+    @Param({ "20", "500", "2000" })
+    public int playerCount;
+
+    @Param({ "", "Ze" })
+    public String partial;
+
+    private final PlayerTypeCompleter completer = new PlayerTypeCompleter();
+
+    private String[] onlineNames;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42L);
+        onlineNames = new String[playerCount];
+        for (int i = 0; i < playerCount; i++) {
+            char[] name = new char[3 + random.nextInt(10)];
+            for (int j = 0; j < name.length; j++) {
+                char c = (char)('a' + random.nextInt(26));
+                name[j] = random.nextBoolean() ? Character.toUpperCase(c) : c;
+            }
+            onlineNames[i] = new String(name) + i;
+            completer.addName(onlineNames[i]);
+        }
+    }
+
+    @Benchmark
+    public List<String> indexed() {
+        return completer.getPrefixMatches(partial, Integer.MAX_VALUE);
+    }
+
+    @Benchmark
+    public List<String> indexedLimited() {
+        return completer.getPrefixMatches(partial, 20);
+    }
+
+    @Benchmark
+    public List<String> scan() {
+        // How PlayerTypeCompleter used to complete
+        List<String> result = new ArrayList<String>();
+        for (String name : onlineNames) {
+            if (StringUtil.startsWithIgnoreCase(name, partial))
+                result.add(name);
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.command;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.bukkit.Server;
+import org.bukkit.command.CommandSender;
+import org.bukkit.permissions.Permission;
+import org.bukkit.permissions.PermissionAttachment;
+import org.bukkit.permissions.PermissionAttachmentInfo;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * CommandSender for benchmarks and tests. Holds a fixed set of permissions,
+ * counts messages and permission checks and otherwise discards messages.
+ */
+public class StubCommandSender implements CommandSender {
+
+    private final Set<String> permissions;
+
+    public int messageCount;
+
+    public int permissionCheckCount;
+
+    public StubCommandSender(String... permissions) {
+        this.permissions = new HashSet<String>(Arrays.asList(permissions));
+    }
+
+    @Override
+    public Server getServer() {
+        return null;
+    }
+
+    @Override
+    public void sendMessage(String message) {
+        messageCount++;
+    }
+
+    @Override
+    public void sendMessage(String[] messages) {
+        messageCount += messages.length;
+    }
+
+    @Override
+    public String getName() {
+        return "StubCommandSender";
+    }
+
+    @Override
+    public boolean isPermissionSet(String name) {
+        permissionCheckCount++;
+        return permissions.contains(name);
+    }
+
+    @Override
+    public boolean isPermissionSet(Permission perm) {
+        return isPermissionSet(perm.getName());
+    }
+
+    @Override
+    public boolean hasPermission(String name) {
+        permissionCheckCount++;
+        return permissions.contains(name);
+    }
+
+    @Override
+    public boolean hasPermission(Permission perm) {
+        return hasPermission(perm.getName());
+    }
+
+    @Override
+    public PermissionAttachment addAttachment(Plugin plugin, String name, boolean value) {
+        return null;
+    }
+
+    @Override
+    public PermissionAttachment addAttachment(Plugin plugin) {
+        return null;
+    }
+
+    @Override
+    public PermissionAttachment addAttachment(Plugin plugin, String name, boolean value, int ticks) {
+        return null;
+    }
+
+    @Override
+    public PermissionAttachment addAttachment(Plugin plugin, int ticks) {
+        return null;
+    }
+
+    @Override
+    public void removeAttachment(PermissionAttachment attachment) {
+    }
+
+    @Override
+    public void recalculatePermissions() {
+    }
+
+    @Override
+    public Set<PermissionAttachmentInfo> getEffectivePermissions() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public boolean isOp() {
+        return false;
+    }
+
+    @Override
+    public void setOp(boolean value) {
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 Allan Saddi <allan@saddi.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tyrannyofheaven.bukkit.util.permissions;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.tyrannyofheaven.bukkit.util.command.StubCommandSender;
+
+/**
+ * Throughput of multiple-permission checks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PermissionUtilsBenchmark {
+
+    private final StubCommandSender sender = new StubCommandSender("foo.user", "foo.mod");
+
+    private final String[] permissions = new String[] { "foo.admin", "foo.mod", "foo.user" };
+
+    @Benchmark
+    public boolean hasAll() {
+        return PermissionUtils.hasPermissions(sender, true, permissions);
+    }
+
+    @Benchmark
+    public boolean hasOne() {
+        return PermissionUtils.hasPermissions(sender, false, permissions);
+    }
+
+    @Benchmark
+    public boolean hasOneCheckingNegations() {
+        return PermissionUtils.hasPermissions(sender, false, true, permissions);
+    }
+
+}